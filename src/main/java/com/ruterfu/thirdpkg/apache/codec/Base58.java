@@ -0,0 +1,13 @@
+package com.ruterfu.thirdpkg.apache.codec;
+
+/**
+ * Base58编码(比特币字母表), 在Base62的基础上去掉了容易看错的0, O, I, l
+ * 一个long最多11个字符, 128位最多22个字符
+ */
+public class Base58 extends BaseRadixCodec {
+    private static final String ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+
+    public Base58() {
+        super(ALPHABET);
+    }
+}
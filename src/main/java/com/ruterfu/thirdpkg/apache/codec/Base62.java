@@ -0,0 +1,13 @@
+package com.ruterfu.thirdpkg.apache.codec;
+
+/**
+ * Base62编码, 只有数字和大小写字母, 可以直接放在URL和文件名里
+ * 一个long最多11个字符, 128位(比如UUID)最多22个字符
+ */
+public class Base62 extends BaseRadixCodec {
+    private static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    public Base62() {
+        super(ALPHABET);
+    }
+}
@@ -14,8 +14,16 @@
 
 package com.ruterfu.thirdpkg.apache.codec;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
 
 public class Base64 extends BaseNCodec {
     private static final int BITS_PER_ENCODED_BYTE = 6;
@@ -27,6 +35,15 @@ public class Base64 extends BaseNCodec {
     private static final int MASK_6BITS = 63;
     private static final int MASK_4BITS = 15;
     private static final int MASK_2BITS = 3;
+    /**
+     * 按无符号byte索引的解码表, 非Base64字符(包括'='和空白)都是-1, 快速路径用它免掉范围判断
+     */
+    private static final int[] FAST_DECODE_TABLE = new int[256];
+    /**
+     * 并行编解码时每段输入的大小, 超过PARALLEL_THRESHOLD才并行
+     */
+    private static final int PARALLEL_SEGMENT_SIZE = 1024 * 1024;
+    private static final int PARALLEL_THRESHOLD = 4 * PARALLEL_SEGMENT_SIZE;
     private final byte[] encodeTable;
     private final byte[] decodeTable;
     private final byte[] lineSeparator;
@@ -38,7 +55,29 @@ public class Base64 extends BaseNCodec {
     }
 
     public static byte[] decodeBase64(String base64String) {
-        return (new Base64()).decode(base64String);
+        return base64String == null ? null : decodeBase64(base64String, 0, base64String.length());
+    }
+
+    public static byte[] decodeBase64(char[] base64Chars, int offset, int length) {
+        return decodeBase64(CharBuffer.wrap(base64Chars), offset, length);
+    }
+
+    /**
+     * 直接从字符解码, 不先转成UTF-8的byte[], 紧凑的输入一次得到精确大小的结果
+     * 和decode(byte[])一样是宽松的: 跳过空白和非法字符, 遇到'='结束, 末尾多出的1个字符丢弃
+     */
+    public static byte[] decodeBase64(CharSequence base64, int offset, int length) {
+        if (length == 0) {
+            return new byte[0];
+        } else {
+            byte[] result = decodeFast(base64, offset, length);
+            if (result == null) {
+                byte[] out = new byte[length / 4 * 3 + 2];
+                result = Arrays.copyOf(out, decodeBase64(base64, offset, length, out, 0));
+            }
+
+            return result;
+        }
     }
 
     public static BigInteger decodeInteger(byte[] pArray) {
@@ -71,12 +110,133 @@ public class Base64 extends BaseNCodec {
         }
     }
 
+    public static int decodeBase64(CharSequence base64, int inPos, int inAvail, byte[] out, int outPos) {
+        int bits = 0;
+        int modulus = 0;
+        int pos = outPos;
+        int end = inPos + inAvail;
+
+        for(int i = inPos; i < end; ++i) {
+            char c = base64.charAt(i);
+            if (c == '=') {
+                break;
+            }
+
+            if (c < DECODE_TABLE.length) {
+                int result = DECODE_TABLE[c];
+                if (result >= 0) {
+                    bits = bits << 6 | result;
+                    if (++modulus == 4) {
+                        out[pos++] = (byte)(bits >> 16);
+                        out[pos++] = (byte)(bits >> 8);
+                        out[pos++] = (byte)bits;
+                        modulus = 0;
+                    }
+                }
+            }
+        }
+
+        if (modulus == 2) {
+            out[pos++] = (byte)(bits >> 4);
+        } else if (modulus == 3) {
+            out[pos++] = (byte)(bits >> 10);
+            out[pos++] = (byte)(bits >> 2);
+        }
+
+        return pos - outPos;
+    }
+
+    public static int encodeBase64(byte[] in, int inPos, int inAvail, byte[] out, int outPos, boolean urlSafe) {
+        byte[] table = urlSafe ? URL_SAFE_ENCODE_TABLE : STANDARD_ENCODE_TABLE;
+        int end = inPos + inAvail - inAvail % 3;
+        int pos = outPos;
+
+        for(int i = inPos; i < end; i += 3) {
+            int bits = (in[i] & 255) << 16 | (in[i + 1] & 255) << 8 | in[i + 2] & 255;
+            out[pos++] = table[bits >> 18 & 63];
+            out[pos++] = table[bits >> 12 & 63];
+            out[pos++] = table[bits >> 6 & 63];
+            out[pos++] = table[bits & 63];
+        }
+
+        switch(inAvail % 3) {
+        case 1:
+            int bits1 = in[end] & 255;
+            out[pos++] = table[bits1 >> 2];
+            out[pos++] = table[bits1 << 4 & 63];
+            if (!urlSafe) {
+                out[pos++] = PAD_DEFAULT;
+                out[pos++] = PAD_DEFAULT;
+            }
+            break;
+        case 2:
+            int bits2 = (in[end] & 255) << 8 | in[end + 1] & 255;
+            out[pos++] = table[bits2 >> 10];
+            out[pos++] = table[bits2 >> 4 & 63];
+            out[pos++] = table[bits2 << 2 & 63];
+            if (!urlSafe) {
+                out[pos++] = PAD_DEFAULT;
+            }
+        }
+
+        return pos - outPos;
+    }
+
+    public static int getEncodedLength(int length, boolean urlSafe) {
+        return (int)(urlSafe ? ((long)length * 4L + 2L) / 3L : ((long)length + 2L) / 3L * 4L);
+    }
+
     public static byte[] encodeBase64Chunked(byte[] binaryData) {
         return encodeBase64(binaryData, true);
     }
 
     public static String encodeBase64String(byte[] binaryData) {
-        return StringUtils.newStringUsAscii(encodeBase64(binaryData, false));
+        return binaryData == null ? null : encodeBase64String(binaryData, 0, binaryData.length, false);
+    }
+
+    /**
+     * 直接编码成字符再生成String, 不经过中间的byte[], 不分行
+     */
+    public static String encodeBase64String(byte[] in, int offset, int length, boolean urlSafe) {
+        char[] out = new char[getEncodedLength(length, urlSafe)];
+        encodeBase64(in, offset, length, out, 0, urlSafe);
+        return new String(out);
+    }
+
+    public static int encodeBase64(byte[] in, int inPos, int inAvail, char[] out, int outPos, boolean urlSafe) {
+        byte[] table = urlSafe ? URL_SAFE_ENCODE_TABLE : STANDARD_ENCODE_TABLE;
+        int end = inPos + inAvail - inAvail % 3;
+        int pos = outPos;
+
+        for(int i = inPos; i < end; i += 3) {
+            int bits = (in[i] & 255) << 16 | (in[i + 1] & 255) << 8 | in[i + 2] & 255;
+            out[pos++] = (char)table[bits >> 18 & 63];
+            out[pos++] = (char)table[bits >> 12 & 63];
+            out[pos++] = (char)table[bits >> 6 & 63];
+            out[pos++] = (char)table[bits & 63];
+        }
+
+        switch(inAvail % 3) {
+        case 1:
+            int bits1 = in[end] & 255;
+            out[pos++] = (char)table[bits1 >> 2];
+            out[pos++] = (char)table[bits1 << 4 & 63];
+            if (!urlSafe) {
+                out[pos++] = '=';
+                out[pos++] = '=';
+            }
+            break;
+        case 2:
+            int bits2 = (in[end] & 255) << 8 | in[end + 1] & 255;
+            out[pos++] = (char)table[bits2 >> 10];
+            out[pos++] = (char)table[bits2 >> 4 & 63];
+            out[pos++] = (char)table[bits2 << 2 & 63];
+            if (!urlSafe) {
+                out[pos++] = '=';
+            }
+        }
+
+        return pos - outPos;
     }
 
     public static byte[] encodeBase64URLSafe(byte[] binaryData) {
@@ -84,7 +244,7 @@ public class Base64 extends BaseNCodec {
     }
 
     public static String encodeBase64URLSafeString(byte[] binaryData) {
-        return StringUtils.newStringUsAscii(encodeBase64(binaryData, false, true));
+        return binaryData == null ? null : encodeBase64String(binaryData, 0, binaryData.length, true);
     }
 
     public static byte[] encodeInteger(BigInteger bigInteger) {
@@ -137,6 +297,13 @@ public class Base64 extends BaseNCodec {
         }
     }
 
+    static {
+        Arrays.fill(FAST_DECODE_TABLE, -1);
+        for(int i = 0; i < DECODE_TABLE.length; ++i) {
+            FAST_DECODE_TABLE[i] = DECODE_TABLE[i];
+        }
+    }
+
     public Base64() {
         this(0);
     }
@@ -183,6 +350,506 @@ public class Base64 extends BaseNCodec {
         this.encodeTable = urlSafe ? URL_SAFE_ENCODE_TABLE : STANDARD_ENCODE_TABLE;
     }
 
+    /**
+     * 不分行时直接按3字节一组编码到精确大小的数组, 不经过Context
+     */
+    public byte[] encode(byte[] pArray, int offset, int length) {
+        if (this.lineLength > 0 || pArray == null || pArray.length == 0) {
+            return super.encode(pArray, offset, length);
+        } else {
+            byte[] out = new byte[getEncodedLength(length, this.isUrlSafe())];
+            encodeBase64(pArray, offset, length, out, 0, this.isUrlSafe());
+            return out;
+        }
+    }
+
+    public String encodeToString(byte[] pArray) {
+        return this.lineLength > 0 || pArray == null || pArray.length == 0 ? super.encodeToString(pArray) : encodeBase64String(pArray, 0, pArray.length, this.isUrlSafe());
+    }
+
+    public String encodeAsString(byte[] pArray) {
+        return this.encodeToString(pArray);
+    }
+
+    /**
+     * 不分行时直接在两个buffer之间编码, 不分配任何数组, 支持direct buffer
+     */
+    public int encode(ByteBuffer in, ByteBuffer out) {
+        if (this.lineLength > 0) {
+            return super.encode(in, out);
+        } else {
+            int len = in.remaining();
+            int encodedLength = getEncodedLength(len, this.isUrlSafe());
+            if (out.remaining() < encodedLength) {
+                throw new BufferOverflowException();
+            } else {
+                int inPos = in.position();
+                int outPos = out.position();
+                if (in.hasArray() && out.hasArray()) {
+                    encodeBase64(in.array(), in.arrayOffset() + inPos, len, out.array(), out.arrayOffset() + outPos, this.isUrlSafe());
+                } else {
+                    int end = inPos + len - len % 3;
+                    int pos = outPos;
+
+                    for(int i = inPos; i < end; i += 3) {
+                        int bits = (in.get(i) & 255) << 16 | (in.get(i + 1) & 255) << 8 | in.get(i + 2) & 255;
+                        out.put(pos++, this.encodeTable[bits >> 18 & 63]);
+                        out.put(pos++, this.encodeTable[bits >> 12 & 63]);
+                        out.put(pos++, this.encodeTable[bits >> 6 & 63]);
+                        out.put(pos++, this.encodeTable[bits & 63]);
+                    }
+
+                    switch(len % 3) {
+                    case 1:
+                        int bits1 = in.get(end) & 255;
+                        out.put(pos++, this.encodeTable[bits1 >> 2]);
+                        out.put(pos++, this.encodeTable[bits1 << 4 & 63]);
+                        if (!this.isUrlSafe()) {
+                            out.put(pos++, this.pad);
+                            out.put(pos, this.pad);
+                        }
+                        break;
+                    case 2:
+                        int bits2 = (in.get(end) & 255) << 8 | in.get(end + 1) & 255;
+                        out.put(pos++, this.encodeTable[bits2 >> 10]);
+                        out.put(pos++, this.encodeTable[bits2 >> 4 & 63]);
+                        out.put(pos++, this.encodeTable[bits2 << 2 & 63]);
+                        if (!this.isUrlSafe()) {
+                            out.put(pos, this.pad);
+                        }
+                    }
+                }
+
+                in.position(inPos + len);
+                out.position(outPos + encodedLength);
+                return encodedLength;
+            }
+        }
+    }
+
+    /**
+     * 在两个buffer之间解码, 不分配任何数组, 规则和decode(byte[])相同: 跳过空白和非法字符, 遇到'='结束
+     */
+    public int decode(ByteBuffer in, ByteBuffer out) {
+        int inPos = in.position();
+        int inEnd = in.limit();
+        int outPos = out.position();
+        int outEnd = out.limit();
+        int pos = outPos;
+        int bits = 0;
+        int modulus = 0;
+
+        for(int i = inPos; i < inEnd; ++i) {
+            int b = in.get(i);
+            if (b == this.pad) {
+                break;
+            }
+
+            int result = FAST_DECODE_TABLE[b & 255];
+            if (result >= 0) {
+                bits = bits << 6 | result;
+                if (++modulus == 4) {
+                    if (pos + 3 > outEnd) {
+                        throw new BufferOverflowException();
+                    }
+
+                    out.put(pos++, (byte)(bits >> 16));
+                    out.put(pos++, (byte)(bits >> 8));
+                    out.put(pos++, (byte)bits);
+                    modulus = 0;
+                }
+            }
+        }
+
+        switch(modulus) {
+        case 1:
+            this.validateTrailingCharacter();
+            break;
+        case 2:
+            this.validateCharacter(MASK_4BITS, bits);
+            if (pos + 1 > outEnd) {
+                throw new BufferOverflowException();
+            }
+
+            out.put(pos++, (byte)(bits >> 4));
+            break;
+        case 3:
+            this.validateCharacter(MASK_2BITS, bits);
+            if (pos + 2 > outEnd) {
+                throw new BufferOverflowException();
+            }
+
+            out.put(pos++, (byte)(bits >> 10));
+            out.put(pos++, (byte)(bits >> 2));
+        }
+
+        in.position(inEnd);
+        out.position(pos);
+        return pos - outPos;
+    }
+
+    /**
+     * 原地解码, 结果从off开始覆盖输入, 每读4个字符才写3个字节, 所以写入位置永远不会超过读取位置
+     * 规则和decode(byte[])相同, 严格模式下非法的结尾同样抛出IllegalArgumentException
+     * @return 解码后的长度, buf[off, off + 返回值)是结果
+     */
+    public int decodeInPlace(byte[] buf, int off, int len) {
+        Objects.requireNonNull(buf, "buf");
+        if (off >= 0 && len >= 0 && off <= buf.length - len) {
+            return this.decodeTo(buf, off, off + len, buf, off, true);
+        } else {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /**
+     * 超过PARALLEL_THRESHOLD时按整行(不分行时按3字节)对齐切段, 在ForkJoinPool上并行编码, 结果和encode完全相同
+     */
+    public byte[] encodeParallel(byte[] pArray) {
+        // 一行超过一段时没法按整行切分, 直接按顺序编码
+        if (pArray == null || pArray.length < PARALLEL_THRESHOLD || this.lineLength / 4 * 3 > PARALLEL_SEGMENT_SIZE) {
+            return this.encode(pArray);
+        } else {
+            int len = pArray.length;
+            int separatorLength = this.lineSeparator == null ? 0 : this.lineSeparator.length;
+            int unit = this.lineLength > 0 ? this.lineLength / 4 * 3 : 3;
+            int segmentIn = PARALLEL_SEGMENT_SIZE / unit * unit;
+            int segmentOut = segmentIn / 3 * 4 + (this.lineLength > 0 ? segmentIn / unit * separatorLength : 0);
+            int segments = (len - 1) / segmentIn + 1;
+            int lastChars = getEncodedLength(len - (segments - 1) * segmentIn, this.isUrlSafe());
+            long total = (long)(segments - 1) * (long)segmentOut + (long)lastChars + (this.lineLength > 0 ? (long)((lastChars + this.lineLength - 1) / this.lineLength * separatorLength) : 0L);
+            if (total > 2147483647L) {
+                throw new IllegalArgumentException("Input array too big, the output array would be bigger (" + total + ") than the specified maximum size of 2147483647");
+            } else {
+                byte[] out = new byte[(int)total];
+                ForkJoinPool.commonPool().invoke(new SegmentTask(0, segments, (i) -> {
+                    int from = i * segmentIn;
+                    int n = Math.min(segmentIn, len - from);
+                    int outPos = i * segmentOut;
+                    if (this.lineLength == 0) {
+                        encodeBase64(pArray, from, n, out, outPos, this.isUrlSafe());
+                    } else {
+                        // 每段从行首开始, 中间的段正好是整行加换行
+                        Context context = new Context();
+                        this.encode(pArray, from, n, context);
+                        if (i == segments - 1) {
+                            this.encode(pArray, from, -1, context);
+                        }
+
+                        this.readResults(out, outPos, out.length - outPos, context);
+                    }
+                }));
+                return out;
+            }
+        }
+    }
+
+    /**
+     * 超过PARALLEL_THRESHOLD时分两步并行解码, 结果和decode完全相同:
+     * 先并行统计每段的有效字符数(到第一个'='为止), 再把每段的开头向后移到4个有效字符对齐的位置, 各段解码到算好的偏移
+     * 除最后一段外如果有段的有效字符少于3个(比如大段空白), 对齐会跨段, 这时直接按顺序解码
+     */
+    public byte[] decodeParallel(byte[] pArray) {
+        if (pArray == null || pArray.length < PARALLEL_THRESHOLD) {
+            return this.decode(pArray);
+        } else {
+            int len = pArray.length;
+            int segments = (len - 1) / PARALLEL_SEGMENT_SIZE + 1;
+            int[] counts = new int[segments];
+            int[] ends = new int[segments];
+            ForkJoinPool.commonPool().invoke(new SegmentTask(0, segments, (i) -> {
+                int to = (int)Math.min((long)len, (long)(i + 1) * (long)PARALLEL_SEGMENT_SIZE);
+                int count = 0;
+
+                int j;
+                for(j = i * PARALLEL_SEGMENT_SIZE; j < to && pArray[j] != this.pad; ++j) {
+                    if (FAST_DECODE_TABLE[pArray[j] & 255] >= 0) {
+                        ++count;
+                    }
+                }
+
+                counts[i] = count;
+                ends[i] = j;
+            }));
+
+            int used = segments;
+            for(int i = 0; i < segments; ++i) {
+                if (ends[i] < (int)Math.min((long)len, (long)(i + 1) * (long)PARALLEL_SEGMENT_SIZE)) {
+                    used = i + 1;
+                    break;
+                }
+            }
+
+            for(int i = 1; i < used - 1; ++i) {
+                if (counts[i] < 3) {
+                    return this.decode(pArray);
+                }
+            }
+
+            int[] starts = new int[used];
+            int[] outPos = new int[used];
+            int total = 0;
+            for(int i = 0; i < used; ++i) {
+                total += counts[i];
+            }
+
+            int before = 0;
+            for(int i = 1; i < used; ++i) {
+                before += counts[i - 1];
+                int start = i * PARALLEL_SEGMENT_SIZE;
+                int skip = -before & 3;
+                int aligned = before + skip;
+                while(skip > 0 && start < ends[i]) {
+                    if (FAST_DECODE_TABLE[pArray[start++] & 255] >= 0) {
+                        --skip;
+                    }
+                }
+
+                if (skip > 0) {
+                    // 最后一段的有效字符不够补齐, 整段并入前一段
+                    used = i;
+                    break;
+                }
+
+                starts[i] = start;
+                outPos[i] = aligned / 4 * 3;
+            }
+
+            byte[] out = new byte[total / 4 * 3 + (total % 4 == 0 ? 0 : total % 4 - 1)];
+            int lastSegment = used - 1;
+            ForkJoinPool.commonPool().invoke(new SegmentTask(0, used, (i) -> {
+                this.decodeTo(pArray, starts[i], i == lastSegment ? len : starts[i + 1], out, outPos[i], i == lastSegment);
+            }));
+            return out;
+        }
+    }
+
+    /**
+     * 解码in[from, to)写到out, 遇到'='结束, finish为true时按CodecPolicy处理结尾不足4个的字符
+     * out可以就是in, 写入位置不会超过读取位置
+     */
+    private int decodeTo(byte[] in, int from, int to, byte[] out, int outPos, boolean finish) {
+        int pos = outPos;
+        int bits = 0;
+        int modulus = 0;
+
+        for(int i = from; i < to; ++i) {
+            byte b = in[i];
+            if (b == this.pad) {
+                break;
+            }
+
+            int result = FAST_DECODE_TABLE[b & 255];
+            if (result >= 0) {
+                bits = bits << 6 | result;
+                if (++modulus == 4) {
+                    out[pos++] = (byte)(bits >> 16);
+                    out[pos++] = (byte)(bits >> 8);
+                    out[pos++] = (byte)bits;
+                    modulus = 0;
+                }
+            }
+        }
+
+        if (finish) {
+            switch(modulus) {
+            case 1:
+                this.validateTrailingCharacter();
+                break;
+            case 2:
+                this.validateCharacter(MASK_4BITS, bits);
+                out[pos++] = (byte)(bits >> 4);
+                break;
+            case 3:
+                this.validateCharacter(MASK_2BITS, bits);
+                out[pos++] = (byte)(bits >> 10);
+                out[pos++] = (byte)(bits >> 2);
+            }
+        }
+
+        return pos - outPos;
+    }
+
+    /**
+     * 不分行时逐个字符追加, StringBuilder会先一次性扩容
+     */
+    public void encodeTo(byte[] pArray, Appendable out) throws IOException {
+        if (this.lineLength > 0 || pArray == null) {
+            super.encodeTo(pArray, out);
+        } else {
+            int len = pArray.length;
+            if (out instanceof StringBuilder) {
+                StringBuilder builder = (StringBuilder)out;
+                builder.ensureCapacity(builder.length() + getEncodedLength(len, this.isUrlSafe()));
+            }
+
+            int end = len - len % 3;
+
+            for(int i = 0; i < end; i += 3) {
+                int bits = (pArray[i] & 255) << 16 | (pArray[i + 1] & 255) << 8 | pArray[i + 2] & 255;
+                out.append((char)this.encodeTable[bits >> 18 & 63]);
+                out.append((char)this.encodeTable[bits >> 12 & 63]);
+                out.append((char)this.encodeTable[bits >> 6 & 63]);
+                out.append((char)this.encodeTable[bits & 63]);
+            }
+
+            switch(len % 3) {
+            case 1:
+                int bits1 = pArray[end] & 255;
+                out.append((char)this.encodeTable[bits1 >> 2]);
+                out.append((char)this.encodeTable[bits1 << 4 & 63]);
+                if (!this.isUrlSafe()) {
+                    out.append('=').append('=');
+                }
+                break;
+            case 2:
+                int bits2 = (pArray[end] & 255) << 8 | pArray[end + 1] & 255;
+                out.append((char)this.encodeTable[bits2 >> 10]);
+                out.append((char)this.encodeTable[bits2 >> 4 & 63]);
+                out.append((char)this.encodeTable[bits2 << 2 & 63]);
+                if (!this.isUrlSafe()) {
+                    out.append('=');
+                }
+            }
+        }
+
+    }
+
+    /**
+     * 没有换行, 空白和非法字符的输入走快速路径, 否则退回按字节处理的Context路径
+     */
+    public byte[] decode(byte[] pArray) {
+        if (pArray != null && pArray.length != 0) {
+            byte[] result = this.decodeFast(pArray);
+            return result != null ? result : super.decode(pArray);
+        } else {
+            return pArray;
+        }
+    }
+
+    /**
+     * 每次把4个字符解码成3个字节, 字符是否合法用OR累积在最后统一判断
+     * @return 解码结果, 输入不是紧凑的Base64(含空白, 中间的'=', 非法字符, 或者末尾只剩1个字符)时返回null
+     */
+    private byte[] decodeFast(byte[] in) {
+        int end = in.length;
+        if (in[end - 1] == this.pad) {
+            --end;
+            if (end > 0 && in[end - 1] == this.pad) {
+                --end;
+            }
+        }
+
+        int tail = end & 3;
+        if (tail == 1) {
+            return null;
+        } else {
+            int full = end - tail;
+            byte[] out = new byte[full / 4 * 3 + (tail == 0 ? 0 : tail - 1)];
+            int invalid = 0;
+            int pos = 0;
+
+            int bits;
+            for(int i = 0; i < full; i += 4) {
+                int b0 = FAST_DECODE_TABLE[in[i] & 255];
+                int b1 = FAST_DECODE_TABLE[in[i + 1] & 255];
+                int b2 = FAST_DECODE_TABLE[in[i + 2] & 255];
+                int b3 = FAST_DECODE_TABLE[in[i + 3] & 255];
+                invalid |= b0 | b1 | b2 | b3;
+                bits = b0 << 18 | b1 << 12 | b2 << 6 | b3;
+                out[pos++] = (byte)(bits >> 16);
+                out[pos++] = (byte)(bits >> 8);
+                out[pos++] = (byte)bits;
+            }
+
+            if (tail == 2) {
+                int b0 = FAST_DECODE_TABLE[in[full] & 255];
+                int b1 = FAST_DECODE_TABLE[in[full + 1] & 255];
+                invalid |= b0 | b1;
+                // 严格模式下的非法结尾交给Context路径抛出原来的异常
+                if (this.isStrictDecoding() && (b1 & MASK_4BITS) != 0) {
+                    return null;
+                }
+
+                out[pos] = (byte)((b0 << 6 | b1) >> 4);
+            } else if (tail == 3) {
+                int b0 = FAST_DECODE_TABLE[in[full] & 255];
+                int b1 = FAST_DECODE_TABLE[in[full + 1] & 255];
+                int b2 = FAST_DECODE_TABLE[in[full + 2] & 255];
+                invalid |= b0 | b1 | b2;
+                if (this.isStrictDecoding() && (b2 & MASK_2BITS) != 0) {
+                    return null;
+                }
+
+                bits = (b0 << 12 | b1 << 6 | b2) >> 2;
+                out[pos++] = (byte)(bits >> 8);
+                out[pos] = (byte)bits;
+            }
+
+            return invalid < 0 ? null : out;
+        }
+    }
+
+    /**
+     * decodeFast的字符版本, 字符本身也OR累积, 大于127的字符在最后统一判为非法
+     */
+    private static byte[] decodeFast(CharSequence in, int offset, int length) {
+        int end = offset + length;
+        if (in.charAt(end - 1) == '=') {
+            --end;
+            if (end > offset && in.charAt(end - 1) == '=') {
+                --end;
+            }
+        }
+
+        int tail = end - offset & 3;
+        if (tail == 1) {
+            return null;
+        } else {
+            int full = end - tail;
+            byte[] out = new byte[(full - offset) / 4 * 3 + (tail == 0 ? 0 : tail - 1)];
+            int chars = 0;
+            int invalid = 0;
+            int pos = 0;
+
+            int bits;
+            for(int i = offset; i < full; i += 4) {
+                char c0 = in.charAt(i);
+                char c1 = in.charAt(i + 1);
+                char c2 = in.charAt(i + 2);
+                char c3 = in.charAt(i + 3);
+                chars |= c0 | c1 | c2 | c3;
+                int b0 = FAST_DECODE_TABLE[c0 & 255];
+                int b1 = FAST_DECODE_TABLE[c1 & 255];
+                int b2 = FAST_DECODE_TABLE[c2 & 255];
+                int b3 = FAST_DECODE_TABLE[c3 & 255];
+                invalid |= b0 | b1 | b2 | b3;
+                bits = b0 << 18 | b1 << 12 | b2 << 6 | b3;
+                out[pos++] = (byte)(bits >> 16);
+                out[pos++] = (byte)(bits >> 8);
+                out[pos++] = (byte)bits;
+            }
+
+            bits = 0;
+            for(int i = full; i < end; ++i) {
+                char c = in.charAt(i);
+                chars |= c;
+                int b = FAST_DECODE_TABLE[c & 255];
+                invalid |= b;
+                bits = bits << 6 | b;
+            }
+
+            if (tail == 2) {
+                out[pos] = (byte)(bits >> 4);
+            } else if (tail == 3) {
+                out[pos++] = (byte)(bits >> 10);
+                out[pos] = (byte)(bits >> 2);
+            }
+
+            return invalid < 0 || chars > 127 ? null : out;
+        }
+    }
+
     void decode(byte[] in, int inPos, int inAvail, Context context) {
         if (!context.eof) {
             if (inAvail < 0) {
@@ -218,12 +885,12 @@ public class Base64 extends BaseNCodec {
                     this.validateTrailingCharacter();
                     break;
                 case 2:
-                    this.validateCharacter(15, context);
+                    this.validateCharacter(15, context.ibitWorkArea);
                     context.ibitWorkArea >>= 4;
                     buffer[context.pos++] = (byte)(context.ibitWorkArea & 255);
                     break;
                 case 3:
-                    this.validateCharacter(3, context);
+                    this.validateCharacter(3, context.ibitWorkArea);
                     context.ibitWorkArea >>= 2;
                     buffer[context.pos++] = (byte)(context.ibitWorkArea >> 8 & 255);
                     buffer[context.pos++] = (byte)(context.ibitWorkArea & 255);
@@ -310,8 +977,8 @@ public class Base64 extends BaseNCodec {
         return this.encodeTable == URL_SAFE_ENCODE_TABLE;
     }
 
-    private void validateCharacter(int emptyBitsMask, Context context) {
-        if (this.isStrictDecoding() && (context.ibitWorkArea & emptyBitsMask) != 0) {
+    private void validateCharacter(int emptyBitsMask, int bitWorkArea) {
+        if (this.isStrictDecoding() && (bitWorkArea & emptyBitsMask) != 0) {
             throw new IllegalArgumentException("Strict decoding: Last encoded character (before the paddings if any) is a valid base 64 alphabet but not a possible encoding. Expected the discarded bits from the character to be zero.");
         }
     }
@@ -321,4 +988,30 @@ public class Base64 extends BaseNCodec {
             throw new IllegalArgumentException("Strict decoding: Last encoded character (before the paddings if any) is a valid base 64 alphabet but not a possible encoding. Decoding requires at least two trailing 6-bit characters to create bytes.");
         }
     }
+
+    /**
+     * 把[from, to)的段号二分到ForkJoinPool上, 每个段号调用一次segment
+     */
+    private static class SegmentTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final IntConsumer segment;
+
+        SegmentTask(int from, int to, IntConsumer segment) {
+            this.from = from;
+            this.to = to;
+            this.segment = segment;
+        }
+
+        protected void compute() {
+            if (this.to - this.from > 1) {
+                int middle = this.from + this.to >>> 1;
+                invokeAll(new SegmentTask(this.from, middle, this.segment), new SegmentTask(middle, this.to, this.segment));
+            } else {
+                this.segment.accept(this.from);
+            }
+
+        }
+    }
 }
@@ -0,0 +1,25 @@
+package com.ruterfu.thirdpkg.apache.codec;
+
+import java.io.InputStream;
+
+/**
+ * 边读边做Base64编码或解码, 只占用固定大小的缓冲区, 可以处理任意大小的数据
+ * 编码时可以通过lineLength按MIME(76)或PEM(64)分行
+ */
+public class Base64InputStream extends BaseNCodecInputStream {
+    public Base64InputStream(InputStream in) {
+        this(in, false);
+    }
+
+    public Base64InputStream(InputStream in, boolean doEncode) {
+        super(in, new Base64(false), doEncode);
+    }
+
+    public Base64InputStream(InputStream in, boolean doEncode, int lineLength, byte[] lineSeparator) {
+        super(in, new Base64(lineLength, lineSeparator), doEncode);
+    }
+
+    public Base64InputStream(InputStream in, boolean doEncode, int lineLength, byte[] lineSeparator, CodecPolicy decodingPolicy) {
+        super(in, new Base64(lineLength, lineSeparator, false, decodingPolicy), doEncode);
+    }
+}
@@ -0,0 +1,25 @@
+package com.ruterfu.thirdpkg.apache.codec;
+
+import java.io.OutputStream;
+
+/**
+ * 边写边做Base64编码或解码, 写入的数据编解码后立即写到下层流, 必须close(或调用eof)才会写出结尾
+ * 编码时可以通过lineLength按MIME(76)或PEM(64)分行
+ */
+public class Base64OutputStream extends BaseNCodecOutputStream {
+    public Base64OutputStream(OutputStream out) {
+        this(out, true);
+    }
+
+    public Base64OutputStream(OutputStream out, boolean doEncode) {
+        super(out, new Base64(false), doEncode);
+    }
+
+    public Base64OutputStream(OutputStream out, boolean doEncode, int lineLength, byte[] lineSeparator) {
+        super(out, new Base64(lineLength, lineSeparator), doEncode);
+    }
+
+    public Base64OutputStream(OutputStream out, boolean doEncode, int lineLength, byte[] lineSeparator, CodecPolicy decodingPolicy) {
+        super(out, new Base64(lineLength, lineSeparator, false, decodingPolicy), doEncode);
+    }
+}
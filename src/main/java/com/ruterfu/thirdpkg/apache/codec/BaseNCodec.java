@@ -5,6 +5,9 @@
 
 package com.ruterfu.thirdpkg.apache.codec;
 
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 
@@ -163,6 +166,53 @@ public abstract class BaseNCodec implements BinaryEncoder, BinaryDecoder {
 
     abstract void encode(byte[] var1, int var2, int var3, BaseNCodec.Context var4);
 
+    /**
+     * 编码in的剩余部分并写到out, 两边的position都向后移动
+     * @return 写入out的字节数
+     * @throws BufferOverflowException out剩余空间不够时抛出, 这时in和out都不会改变
+     */
+    public int encode(ByteBuffer in, ByteBuffer out) {
+        byte[] src = new byte[in.remaining()];
+        in.duplicate().get(src);
+        byte[] encoded = this.encode(src);
+        return this.putResults(in, out, encoded);
+    }
+
+    /**
+     * 解码in的剩余部分并写到out, 两边的position都向后移动
+     * @return 写入out的字节数
+     * @throws BufferOverflowException out剩余空间不够时抛出, 这时in和out都不会改变
+     */
+    public int decode(ByteBuffer in, ByteBuffer out) {
+        byte[] src = new byte[in.remaining()];
+        in.duplicate().get(src);
+        byte[] decoded = this.decode(src);
+        return this.putResults(in, out, decoded);
+    }
+
+    /**
+     * 编码后直接追加到out, 比如StringBuilder或Writer
+     */
+    public void encodeTo(byte[] pArray, Appendable out) throws IOException {
+        byte[] encoded = this.encode(pArray);
+        if (encoded != null) {
+            for(int i = 0; i < encoded.length; ++i) {
+                out.append((char)encoded[i]);
+            }
+        }
+
+    }
+
+    private int putResults(ByteBuffer in, ByteBuffer out, byte[] results) {
+        if (out.remaining() < results.length) {
+            throw new BufferOverflowException();
+        } else {
+            out.put(results);
+            in.position(in.limit());
+            return results.length;
+        }
+    }
+
     public Object encode(Object obj) throws EncoderException {
         if (!(obj instanceof byte[])) {
             throw new EncoderException("Parameter supplied to Base-N encode is not a byte[]");
@@ -0,0 +1,92 @@
+package com.ruterfu.thirdpkg.apache.codec;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+public class BaseNCodecOutputStream extends FilterOutputStream {
+    private final boolean doEncode;
+    private final BaseNCodec baseNCodec;
+    private final byte[] singleByte = new byte[1];
+    private final BaseNCodec.Context context = new BaseNCodec.Context();
+
+    public BaseNCodecOutputStream(OutputStream outputStream, BaseNCodec basedCodec, boolean doEncode) {
+        super(outputStream);
+        this.baseNCodec = Objects.requireNonNull(basedCodec, "basedCodec");
+        this.doEncode = doEncode;
+    }
+
+    public boolean isStrictDecoding() {
+        return this.baseNCodec.isStrictDecoding();
+    }
+
+    public void write(int i) throws IOException {
+        this.singleByte[0] = (byte)i;
+        this.write(this.singleByte, 0, 1);
+    }
+
+    public void write(byte[] array, int offset, int len) throws IOException {
+        Objects.requireNonNull(array, "array");
+        if (offset >= 0 && len >= 0) {
+            if (offset <= array.length && offset + len <= array.length) {
+                if (len > 0) {
+                    if (this.doEncode) {
+                        this.baseNCodec.encode(array, offset, len, this.context);
+                    } else {
+                        this.baseNCodec.decode(array, offset, len, this.context);
+                    }
+
+                    this.flush(false);
+                }
+
+            } else {
+                throw new IndexOutOfBoundsException();
+            }
+        } else {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /**
+     * 把Context里已经编解码好的数据写到下层流, 写完后Context的缓冲区会被释放, 内存占用不随数据总量增长
+     * @param propagate 是否同时flush下层流
+     */
+    private void flush(boolean propagate) throws IOException {
+        int avail = this.baseNCodec.available(this.context);
+        if (avail > 0) {
+            byte[] buf = new byte[avail];
+            int c = this.baseNCodec.readResults(buf, 0, avail, this.context);
+            if (c > 0) {
+                this.out.write(buf, 0, c);
+            }
+        }
+
+        if (propagate) {
+            this.out.flush();
+        }
+
+    }
+
+    public void flush() throws IOException {
+        this.flush(true);
+    }
+
+    /**
+     * 写入结尾(编码时的padding和最后的换行), 之后不能再写入, close时会自动调用
+     */
+    public void eof() throws IOException {
+        if (this.doEncode) {
+            this.baseNCodec.encode(this.singleByte, 0, -1, this.context);
+        } else {
+            this.baseNCodec.decode(this.singleByte, 0, -1, this.context);
+        }
+
+    }
+
+    public void close() throws IOException {
+        this.eof();
+        this.flush();
+        this.out.close();
+    }
+}
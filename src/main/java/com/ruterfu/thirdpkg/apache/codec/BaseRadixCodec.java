@@ -0,0 +1,215 @@
+package com.ruterfu.thirdpkg.apache.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 按任意进制(不是2的幂)编码的编解码器, 比如Base62和Base58, 整个输入当成一个大端的大数做进制转换
+ * 开头的每个0字节编码成一个字母表的第一个字符, 所以byte[]可以按原长度解码回来
+ * long有单独的快速路径, 按无符号数处理
+ */
+public abstract class BaseRadixCodec implements BinaryEncoder, BinaryDecoder {
+    private final char[] alphabet;
+    private final byte[] decodeTable = new byte[128];
+    private final int radix;
+    /**
+     * 每个字符至少携带的位数, 用来估算byte[]编码结果的长度
+     */
+    private final int minBitsPerChar;
+    private final int maxLongLength;
+    private final long maxBeforeMultiply;
+
+    /**
+     * @param alphabet 2到128个互不相同的ASCII字符
+     * @throws IllegalArgumentException 字母表长度不对, 有重复字符或者非ASCII字符
+     */
+    protected BaseRadixCodec(String alphabet) {
+        this.alphabet = alphabet.toCharArray();
+        this.radix = this.alphabet.length;
+        if (this.radix < 2 || this.radix > this.decodeTable.length) {
+            throw new IllegalArgumentException("Alphabet length must be 2 to " + this.decodeTable.length + " but now " + this.radix + ".");
+        }
+        Arrays.fill(this.decodeTable, (byte)-1);
+
+        for(int i = 0; i < this.radix; ++i) {
+            char ch = this.alphabet[i];
+            if (ch >= this.decodeTable.length || this.decodeTable[ch] >= 0) {
+                throw new IllegalArgumentException("Alphabet character " + ch + " at index " + i + " is not ASCII or duplicated.");
+            }
+            this.decodeTable[ch] = (byte)i;
+        }
+
+        this.minBitsPerChar = 31 - Integer.numberOfLeadingZeros(this.radix);
+        int maxLongLength = 0;
+        long value = -1L;
+        do {
+            value = Long.divideUnsigned(value, (long)this.radix);
+            ++maxLongLength;
+        } while(value != 0L);
+        this.maxLongLength = maxLongLength;
+        this.maxBeforeMultiply = Long.divideUnsigned(-1L, (long)this.radix);
+    }
+
+    /**
+     * @param value 按无符号数处理的long
+     * @return 编码结果, 0编码成字母表的第一个字符
+     */
+    public String encodeLong(long value) {
+        char[] buf = new char[this.maxLongLength];
+        int pos = buf.length;
+        if (value < 0L) {
+            long quotient = Long.divideUnsigned(value, (long)this.radix);
+            buf[--pos] = this.alphabet[(int)(value - quotient * (long)this.radix)];
+            value = quotient;
+        }
+
+        do {
+            buf[--pos] = this.alphabet[(int)(value % (long)this.radix)];
+            value /= (long)this.radix;
+        } while(value != 0L);
+
+        return new String(buf, pos, buf.length - pos);
+    }
+
+    /**
+     * @param encoded encodeLong的结果
+     * @return 无符号的long
+     * @throws IllegalArgumentException 为空, 含有字母表之外的字符, 或者超出64位
+     */
+    public long decodeLong(CharSequence encoded) {
+        int len = encoded.length();
+        if (len != 0 && len <= this.maxLongLength) {
+            long value = 0L;
+
+            for(int i = 0; i < len; ++i) {
+                int digit = this.digit(encoded.charAt(i), i);
+                if (Long.compareUnsigned(value, this.maxBeforeMultiply) > 0) {
+                    throw new IllegalArgumentException("Value of " + encoded + " is out of unsigned 64-bit range.");
+                }
+
+                long multiplied = value * (long)this.radix;
+                value = multiplied + (long)digit;
+                if (Long.compareUnsigned(value, multiplied) < 0) {
+                    throw new IllegalArgumentException("Value of " + encoded + " is out of unsigned 64-bit range.");
+                }
+            }
+
+            return value;
+        } else {
+            throw new IllegalArgumentException("Length of encoded long must be 1 to " + this.maxLongLength + " but now " + len + ".");
+        }
+    }
+
+    public String encodeToString(byte[] data) {
+        int zeros = 0;
+        while(zeros < data.length && data[zeros] == 0) {
+            ++zeros;
+        }
+
+        byte[] number = Arrays.copyOfRange(data, zeros, data.length);
+        // 每个字符至少携带minBitsPerChar位, 开头的0字节各占一个字符也不会超过这个长度
+        char[] out = new char[(int)(((long)data.length * 8L + (long)this.minBitsPerChar - 1L) / (long)this.minBitsPerChar)];
+        int pos = out.length;
+        int start = 0;
+
+        while(start < number.length) {
+            int remainder = 0;
+
+            for(int i = start; i < number.length; ++i) {
+                int acc = remainder << 8 | number[i] & 255;
+                number[i] = (byte)(acc / this.radix);
+                remainder = acc % this.radix;
+            }
+
+            out[--pos] = this.alphabet[remainder];
+            while(start < number.length && number[start] == 0) {
+                ++start;
+            }
+        }
+
+        while(zeros-- > 0) {
+            out[--pos] = this.alphabet[0];
+        }
+
+        return new String(out, pos, out.length - pos);
+    }
+
+    /**
+     * @param encoded encodeToString的结果
+     * @return 解码结果, 长度和编码前相同
+     * @throws IllegalArgumentException 含有字母表之外的字符
+     */
+    public byte[] decode(CharSequence encoded) {
+        int len = encoded.length();
+        int zeros = 0;
+        while(zeros < len && encoded.charAt(zeros) == this.alphabet[0]) {
+            ++zeros;
+        }
+
+        // 每个字符至少带来1位, 所以字节数不会超过字符数
+        byte[] number = new byte[len];
+        int length = 0;
+
+        for(int i = zeros; i < len; ++i) {
+            int carry = this.digit(encoded.charAt(i), i);
+
+            for(int j = number.length - 1; j >= number.length - length; --j) {
+                carry += (number[j] & 255) * this.radix;
+                number[j] = (byte)carry;
+                carry >>>= 8;
+            }
+
+            while(carry > 0) {
+                number[number.length - 1 - length++] = (byte)carry;
+                carry >>>= 8;
+            }
+        }
+
+        byte[] out = new byte[zeros + length];
+        System.arraycopy(number, number.length - length, out, zeros, length);
+        return out;
+    }
+
+    public byte[] encode(byte[] array) {
+        return this.encodeToString(array).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public Object encode(Object object) throws EncoderException {
+        if (object instanceof byte[]) {
+            return this.encode((byte[])object);
+        } else {
+            throw new EncoderException("Parameter supplied to " + this.getClass().getSimpleName() + " encode is not a byte[]");
+        }
+    }
+
+    public byte[] decode(byte[] array) throws DecoderException {
+        try {
+            return this.decode(new String(array, StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) {
+            throw new DecoderException(e.getMessage(), e);
+        }
+    }
+
+    public Object decode(Object object) throws DecoderException {
+        if (object instanceof byte[]) {
+            return this.decode((byte[])object);
+        } else if (object instanceof String) {
+            try {
+                return this.decode((CharSequence)object);
+            } catch (IllegalArgumentException e) {
+                throw new DecoderException(e.getMessage(), e);
+            }
+        } else {
+            throw new DecoderException("Parameter supplied to " + this.getClass().getSimpleName() + " decode is not a byte[] or a String");
+        }
+    }
+
+    private int digit(char ch, int index) {
+        int digit = ch < this.decodeTable.length ? this.decodeTable[ch] : -1;
+        if (digit < 0) {
+            throw new IllegalArgumentException("Illegal " + this.getClass().getSimpleName() + " character " + ch + " at index " + index);
+        } else {
+            return digit;
+        }
+    }
+}
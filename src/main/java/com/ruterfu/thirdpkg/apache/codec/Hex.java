@@ -0,0 +1,157 @@
+package com.ruterfu.thirdpkg.apache.codec;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 十六进制编解码, 查表一次写入一个char[], 不经过BigInteger, 任意长度的输入都是每字节2个字符
+ */
+public class Hex implements BinaryEncoder, BinaryDecoder {
+    private static final char[] DIGITS_LOWER = new char[]{'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final char[] DIGITS_UPPER = new char[]{'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+    /**
+     * 按字符索引的解码表, 非十六进制字符是-1
+     */
+    private static final byte[] DECODE_TABLE = new byte[128];
+    private final char[] digits;
+
+    static {
+        for(int i = 0; i < DECODE_TABLE.length; ++i) {
+            DECODE_TABLE[i] = -1;
+        }
+
+        for(int i = 0; i < 16; ++i) {
+            DECODE_TABLE[DIGITS_LOWER[i]] = (byte)i;
+            DECODE_TABLE[DIGITS_UPPER[i]] = (byte)i;
+        }
+    }
+
+    public static char[] encodeHex(byte[] data) {
+        return encodeHex(data, true);
+    }
+
+    public static char[] encodeHex(byte[] data, boolean toLowerCase) {
+        char[] out = new char[data.length << 1];
+        encodeHex(data, 0, data.length, toLowerCase ? DIGITS_LOWER : DIGITS_UPPER, out, 0);
+        return out;
+    }
+
+    public static String encodeHexString(byte[] data) {
+        return new String(encodeHex(data, true));
+    }
+
+    public static String encodeHexString(byte[] data, boolean toLowerCase) {
+        return new String(encodeHex(data, toLowerCase));
+    }
+
+    public static byte[] decodeHex(String data) throws DecoderException {
+        return decodeHex((CharSequence)data);
+    }
+
+    public static byte[] decodeHex(char[] data) throws DecoderException {
+        return decodeHex(CharBuffer.wrap(data));
+    }
+
+    /**
+     * @param data 十六进制字符, 大小写都可以
+     * @return 解码结果
+     * @throws DecoderException 长度是奇数或者含有非十六进制字符
+     */
+    public static byte[] decodeHex(CharSequence data) throws DecoderException {
+        int len = data.length();
+        if ((len & 1) != 0) {
+            throw new DecoderException("Odd number of characters.");
+        } else {
+            byte[] out = new byte[len >> 1];
+
+            for(int i = 0, j = 0; j < len; ++i) {
+                int high = toDigit(data.charAt(j), j);
+                ++j;
+                int low = toDigit(data.charAt(j), j);
+                ++j;
+                out[i] = (byte)(high << 4 | low);
+            }
+
+            return out;
+        }
+    }
+
+    private static void encodeHex(byte[] data, int dataOffset, int dataLen, char[] toDigits, char[] out, int outOffset) {
+        int j = outOffset;
+
+        for(int i = dataOffset; i < dataOffset + dataLen; ++i) {
+            out[j++] = toDigits[(240 & data[i]) >>> 4];
+            out[j++] = toDigits[15 & data[i]];
+        }
+
+    }
+
+    private static int toDigit(char ch, int index) throws DecoderException {
+        int digit = ch < DECODE_TABLE.length ? DECODE_TABLE[ch] : -1;
+        if (digit == -1) {
+            throw new DecoderException("Illegal hexadecimal character " + ch + " at index " + index);
+        } else {
+            return digit;
+        }
+    }
+
+    public Hex() {
+        this(true);
+    }
+
+    public Hex(boolean toLowerCase) {
+        this.digits = toLowerCase ? DIGITS_LOWER : DIGITS_UPPER;
+    }
+
+    /**
+     * @param array 十六进制字符的ASCII bytes
+     * @return 解码结果
+     */
+    public byte[] decode(byte[] array) throws DecoderException {
+        return decodeHex(new String(array, StandardCharsets.US_ASCII));
+    }
+
+    public Object decode(Object object) throws DecoderException {
+        if (object instanceof String) {
+            return decodeHex((String)object);
+        } else if (object instanceof byte[]) {
+            return this.decode((byte[])object);
+        } else if (object instanceof char[]) {
+            return decodeHex((char[])object);
+        } else {
+            throw new DecoderException("Parameter supplied to Hex decode is not a byte[], char[] or a String");
+        }
+    }
+
+    /**
+     * @param array 原始数据
+     * @return 十六进制字符的ASCII bytes
+     */
+    public byte[] encode(byte[] array) {
+        byte[] out = new byte[array.length << 1];
+        int j = 0;
+
+        for(int i = 0; i < array.length; ++i) {
+            out[j++] = (byte)this.digits[(240 & array[i]) >>> 4];
+            out[j++] = (byte)this.digits[15 & array[i]];
+        }
+
+        return out;
+    }
+
+    public Object encode(Object object) throws EncoderException {
+        if (object instanceof byte[]) {
+            return this.encode((byte[])object);
+        } else if (object instanceof String) {
+            return this.encode(((String)object).getBytes(StandardCharsets.UTF_8));
+        } else {
+            throw new EncoderException("Parameter supplied to Hex encode is not a byte[] or a String");
+        }
+    }
+
+    public String encodeToString(byte[] array) {
+        char[] out = new char[array.length << 1];
+        encodeHex(array, 0, array.length, this.digits, out, 0);
+        return new String(out);
+    }
+}
@@ -119,4 +119,52 @@ public class StringUtils {
     public static String newStringUtf8(byte[] bytes) {
         return newString(bytes, StandardCharsets.UTF_8);
     }
+
+    public static int utf8Length(CharSequence cs) {
+        int length = cs.length();
+        int utf8Length = length;
+        for(int i = 0; i < length; ++i) {
+            char c = cs.charAt(i);
+            if (c >= 128) {
+                if (c < 2048) {
+                    ++utf8Length;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(cs.charAt(i + 1))) {
+                    utf8Length += 2;
+                    ++i;
+                } else if (!Character.isSurrogate(c)) {
+                    utf8Length += 2;
+                }
+            }
+        }
+
+        return utf8Length;
+    }
+
+    public static int encodeUtf8(CharSequence cs, byte[] dst, int dstPos) {
+        int length = cs.length();
+        int pos = dstPos;
+        for(int i = 0; i < length; ++i) {
+            char c = cs.charAt(i);
+            if (c < 128) {
+                dst[pos++] = (byte)c;
+            } else if (c < 2048) {
+                dst[pos++] = (byte)(192 | c >> 6);
+                dst[pos++] = (byte)(128 | c & 63);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(cs.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, cs.charAt(++i));
+                dst[pos++] = (byte)(240 | codePoint >> 18);
+                dst[pos++] = (byte)(128 | codePoint >> 12 & 63);
+                dst[pos++] = (byte)(128 | codePoint >> 6 & 63);
+                dst[pos++] = (byte)(128 | codePoint & 63);
+            } else if (Character.isSurrogate(c)) {
+                dst[pos++] = 63;
+            } else {
+                dst[pos++] = (byte)(224 | c >> 12);
+                dst[pos++] = (byte)(128 | c >> 6 & 63);
+                dst[pos++] = (byte)(128 | c & 63);
+            }
+        }
+
+        return pos - dstPos;
+    }
 }
@@ -4,20 +4,27 @@ import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.ruterfu.thirdpkg.apache.validator.UrlValidator;
+import com.ruterfu.thirdpkg.apache.codec.Base62;
 import com.ruterfu.thirdpkg.apache.codec.Base64;
+import com.ruterfu.thirdpkg.apache.codec.Hex;
 import com.ruterfu.utils.aes.AES;
+import com.ruterfu.utils.digest.Digests;
+import com.ruterfu.utils.digest.DirectoryDigest;
+import com.ruterfu.utils.digest.TreeDigest;
 
 import java.io.*;
 import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.math.RoundingMode;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
 import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -32,6 +39,10 @@ import java.util.zip.GZIPOutputStream;
  * Ruter的工具包
  */
 public class RtUtil {
+    private static final int AES_CACHE_MAX_SIZE = 256;
+    private static final Map<String, AES> AES_CACHE = new ConcurrentHashMap<>();
+    private static final Base62 BASE62 = new Base62();
+
     /**
      * 判断是否为IP
      * @param text 输入IP地址
@@ -462,6 +473,15 @@ public class RtUtil {
     public static String randomUUIDWithLine() {
         return UUID.randomUUID().toString();
     }
+
+    /**
+     * 随机一个UUID并用Base62编码, 最多22位, 只有数字和大小写字母, 适合放在URL和缓存key里
+     * @return 随机字符串
+     */
+    public static String randomShortUUID() {
+        UUID uuid = UUID.randomUUID();
+        return BASE62.encodeToString(ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array());
+    }
     public static String randomAES256Key() {
         return random(43);
     }
@@ -608,8 +628,8 @@ public class RtUtil {
     }
 
     /**
-     * MD5计算
-     * @param sources 源数据(多个，如果数组中是null则视为空字符串处理)
+     * MD5计算, 结果和把各部分拼接后计算相同, 但各部分直接编码进摘要, 不生成拼接后的字符串
+     * @param sources 源数据(多个，如果数组中是null则视为空字符串处理, CharSequence和整数不会调用toString)
      * @return MD5
      */
     public static String md5(Object... sources) {
@@ -617,12 +637,7 @@ public class RtUtil {
             if (sources == null) {
                 return null;
             }
-            StringBuilder stringBuilder = new StringBuilder();
-            for (Object source : sources) {
-                stringBuilder.append(source == null ? "" : source.toString());
-            }
-
-            return md5(stringBuilder.toString());
+            return Hex.encodeHexString(Digests.digestParts("MD5", sources));
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -648,21 +663,16 @@ public class RtUtil {
     }
 
     /**
-     * MD5计算
-     * @param sources 源数据(多个，如果数组中是null则视为空字符串处理)
-     * @return MD5
+     * SHA1计算, 结果和把各部分拼接后计算相同, 但各部分直接编码进摘要, 不生成拼接后的字符串
+     * @param sources 源数据(多个，如果数组中是null则视为空字符串处理, CharSequence和整数不会调用toString)
+     * @return SHA1
      */
     public static String sha1(Object... sources) {
         try {
             if (sources == null) {
                 return null;
             }
-            StringBuilder stringBuilder = new StringBuilder();
-            for (Object source : sources) {
-                stringBuilder.append(source == null ? "" : source.toString());
-            }
-
-            return sha1(stringBuilder.toString());
+            return Hex.encodeHexString(Digests.digestParts("SHA1", sources));
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -670,16 +680,14 @@ public class RtUtil {
     }
 
     /**
-     * 按指定算法后进行摘要计算
+     * 按指定算法后进行摘要计算, MessageDigest每个线程缓存复用, 自定义算法通过 Digests.register 注册
      * @param source 源文本
      * @param algorithm 算法
      * @return 摘要值
      */
     public static String digest(byte[] source, String algorithm) {
         try {
-            MessageDigest digest = MessageDigest.getInstance(algorithm);
-            digest.update(source);
-            return toHex(digest.digest());
+            return Hex.encodeHexString(Digests.digest(source, algorithm));
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -693,18 +701,103 @@ public class RtUtil {
      * @return 摘要值
      */
     public static String digestFile(File sourceFile, String algorithm) {
-        if(sourceFile == null || !sourceFile.exists()) {
+        if(sourceFile == null) {
             return null;
         }
-        try(FileInputStream fis = new FileInputStream(sourceFile)) {
-            MessageDigest digest = MessageDigest.getInstance(isNull(algorithm) ? "MD5" : algorithm);
+        return digestFile(sourceFile.toPath(), algorithm);
+    }
 
-            byte[] bytes = new byte[2048];
-            int len;
-            while ((len = fis.read(bytes)) != -1) {
-                digest.update(bytes, 0, len);
-            }
-            return toHex(digest.digest());
+    /**
+     * 按 TreeDigest 的格式并行计算大文件的分块树摘要, 结果和 digestFile 不同, 两端都要用这个方法校验
+     * @param sourceFile 源文件
+     * @param algorithm 算法, 为空时使用MD5
+     * @return 根摘要, 文件不存在或出错返回null
+     */
+    public static String digestFileTree(Path sourceFile, String algorithm) {
+        if(sourceFile == null || !Files.isRegularFile(sourceFile)) {
+            return null;
+        }
+        try {
+            return TreeDigest.of(sourceFile, isNull(algorithm) ? "MD5" : algorithm).getRootHex();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 并行计算目录的Merkle树摘要, 可以用 DirectoryDigest.diff 比较两个目录
+     * @param directory 目录
+     * @param algorithm 算法, 为空时使用MD5
+     * @return 根节点, 不是目录或出错返回null
+     */
+    public static DirectoryDigest digestDirectory(Path directory, String algorithm) {
+        if(directory == null || !Files.isDirectory(directory)) {
+            return null;
+        }
+        try {
+            return DirectoryDigest.of(directory, isNull(algorithm) ? "MD5" : algorithm);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 一次计算多种摘要, 例如 digestAll(bytes, "MD5", "SHA1")
+     * @param source 源数据
+     * @param algorithms 算法
+     * @return 算法 -> 摘要值, 按传入的顺序, 出错返回null
+     */
+    public static Map<String, String> digestAll(byte[] source, String... algorithms) {
+        try {
+            return toHexMap(Digests.digestAll(source, algorithms));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 只读一遍文件计算多种摘要, 例如 digestFileAll(file, "MD5", "SHA1")
+     * @param sourceFile 源文件
+     * @param algorithms 算法
+     * @return 算法 -> 摘要值, 按传入的顺序, 文件不存在或出错返回null
+     */
+    public static Map<String, String> digestFileAll(File sourceFile, String... algorithms) {
+        return sourceFile == null ? null : digestFileAll(sourceFile.toPath(), algorithms);
+    }
+
+    /**
+     * 只读一遍文件计算多种摘要, 例如 digestFileAll(path, "MD5", "SHA1")
+     * @param sourceFile 源文件
+     * @param algorithms 算法
+     * @return 算法 -> 摘要值, 按传入的顺序, 文件不存在或出错返回null
+     */
+    public static Map<String, String> digestFileAll(Path sourceFile, String... algorithms) {
+        if(sourceFile == null || !Files.isRegularFile(sourceFile)) {
+            return null;
+        }
+        try {
+            return toHexMap(Digests.digestFileAll(sourceFile, algorithms));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 按指定算法后对文件进行摘要计算, 大文件按窗口映射到内存计算
+     * @param sourceFile 源文件
+     * @param algorithm 算法, 为空时使用MD5
+     * @return 摘要值
+     */
+    public static String digestFile(Path sourceFile, String algorithm) {
+        if(sourceFile == null || !Files.isRegularFile(sourceFile)) {
+            return null;
+        }
+        try {
+            return Hex.encodeHexString(Digests.digestFile(sourceFile, isNull(algorithm) ? "MD5" : algorithm));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -938,7 +1031,8 @@ public class RtUtil {
      * @return Base64后的文本
      */
     public static String base64Encode(String data) {
-        return Base64.encodeBase64URLSafeString(data.getBytes(StandardCharsets.UTF_8));
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        return Base64.encodeBase64String(bytes, 0, bytes.length, true);
     }
 
     /**
@@ -947,7 +1041,7 @@ public class RtUtil {
      * @return 返回结果
      */
     public static String base64Decode(String base64) {
-        return new String(Base64.decodeBase64(base64), StandardCharsets.UTF_8);
+        return new String(Base64.decodeBase64(base64, 0, base64.length()), StandardCharsets.UTF_8);
     }
 
     /**
@@ -1247,11 +1341,40 @@ public class RtUtil {
         return null;
     }
 
+    /**
+     * AES加密, 同一个key的AES实例会被缓存复用
+     * @param text 原始文本
+     * @param key AES key, 规则同 new AES(String)
+     * @return 加密后的bytes
+     */
     public static byte[] encryptAESString(String text, String key) {
-        return new AES(key).encryptString(text);
+        return getAES(key).encryptString(text);
     }
+
+    /**
+     * AES解密, 同一个key的AES实例会被缓存复用
+     * @param text 加密后的Base64
+     * @param key AES key, 规则同 new AES(String)
+     * @return 原始文本的bytes
+     */
     public static byte[] decryptAESString(String text, String key) {
-        return new AES(key).decryptString(text);
+        return getAES(key).decryptString(text);
+    }
+
+    /**
+     * 获得key对应的AES实例, AES是线程安全的, 缓存超过上限后会整体清空重建
+     * @param key AES key
+     * @return AES实例
+     */
+    public static AES getAES(String key) {
+        AES aes = AES_CACHE.get(key);
+        if(aes == null) {
+            if(AES_CACHE.size() >= AES_CACHE_MAX_SIZE) {
+                AES_CACHE.clear();
+            }
+            aes = AES_CACHE.computeIfAbsent(key, AES::new);
+        }
+        return aes;
     }
 
     // 私有方法 开始 ====================================================
@@ -1370,17 +1493,10 @@ public class RtUtil {
         }
     }
 
-    private static String toHex(byte[] bytes) {
-        String s = new BigInteger(1, bytes).toString(16);
-        if (s.length() != 32) {
-            int currLen = 32 - s.length();
-            StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < currLen; i++) {
-                sb.append("0");
-            }
-            return sb.toString() + s;
-        }
-        return s;
+    private static Map<String, String> toHexMap(Map<String, byte[]> digests) {
+        Map<String, String> hex = new LinkedHashMap<>();
+        digests.forEach((algorithm, digest) -> hex.put(algorithm, Hex.encodeHexString(digest)));
+        return hex;
     }
     // 私有方法 结束 ====================================================
 }
\ No newline at end of file
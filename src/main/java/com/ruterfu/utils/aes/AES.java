@@ -1,24 +1,142 @@
 package com.ruterfu.utils.aes;
 
 import com.ruterfu.thirdpkg.apache.codec.Base64;
+import com.ruterfu.thirdpkg.apache.codec.StringUtils;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
 
+/**
+ * AES加解密, 默认是 AES/CBC/NoPadding + 自定义填充, IV取key的前16位
+ * 实例是线程安全的, key只在构造时初始化一次, 每个线程复用自己的Cipher,
+ * 建议同一个key只创建一个实例并共享使用
+ * GCM模式每条消息使用96位随机nonce, 同一个key最多加密2^32条消息, 之后必须换key
+ */
 public class AES {
-    private static Charset CHARSET = StandardCharsets.UTF_8;
-    private byte[] aesKey;
+    private static final Charset CHARSET = StandardCharsets.UTF_8;
+    private static final int BLOCK_SIZE = 16;
+    /**
+     * decode()最多会去掉32位填充, 流式解密时需要一直保留最后这么多明文直到读完
+     */
+    private static final int MAX_PAD = 32;
+    /**
+     * 流式加解密每次处理的分段大小, 必须是16的倍数
+     */
+    private static final int STREAM_SEGMENT_SIZE = 8192;
+    /**
+     * CTR模式并行时每段的大小, 必须是16的倍数
+     */
+    private static final int PARALLEL_SEGMENT_SIZE = 1024 * 1024;
+    /**
+     * CTR模式数据超过这个大小才并行
+     */
+    private static final int PARALLEL_THRESHOLD = 2 * PARALLEL_SEGMENT_SIZE;
+    /**
+     * 文件加解密时每次映射的窗口大小, 必须是16的倍数
+     */
+    private static final long FILE_WINDOW_SIZE = 64L * 1024 * 1024;
+    /**
+     * 字符串加解密用的线程内缓冲区, 超过这个大小的临时缓冲区用完就丢弃, 不长期占用
+     */
+    private static final int SCRATCH_RETAIN_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[1024]);
+    private static final SecureRandom RANDOM = new SecureRandom();
+    /**
+     * 批量加解密时每个任务最少处理的条数, 太少的话任务调度比加解密本身还慢
+     */
+    private static final int BATCH_MIN_CHUNK = 256;
+
+    /**
+     * 加密模式, 除CBC外密文都带一个头: [模式id 1位][nonce], GCM在密文后面还有16位认证tag
+     */
+    public enum Mode {
+        /**
+         * 默认模式, 兼容以前的格式, 没有头, 相同明文得到相同密文
+         */
+        CBC((byte) 0, "AES/CBC/NoPadding", 0, 0),
+        /**
+         * 计数器模式, 头是 [1][16位nonce], 密文和明文等长, 大数据会分段在ForkJoinPool上并行加解密
+         */
+        CTR((byte) 1, "AES/CTR/NoPadding", 16, 0),
+        /**
+         * 认证加密模式, 头是 [2][12位随机nonce], 一次完成加密和防篡改校验, 支持附加认证数据(aad)
+         * 头本身也参与认证, 被篡改的密文解密时返回null(或-1)
+         * nonce是96位随机数, 同一个key(不论多少个实例)加密的消息总数不要超过2^32条, 超过后nonce重复的概率不可忽略, 需要换key
+         */
+        GCM((byte) 2, "AES/GCM/NoPadding", 12, 16);
+
+        final byte id;
+        final String transformation;
+        final int nonceLength;
+        final int tagLength;
+
+        Mode(byte id, String transformation, int nonceLength, int tagLength) {
+            this.id = id;
+            this.transformation = transformation;
+            this.nonceLength = nonceLength;
+            this.tagLength = tagLength;
+        }
+
+        int headerLength() {
+            return nonceLength == 0 ? 0 : 1 + nonceLength;
+        }
+    }
+
+    private final Mode mode;
+    private final byte[] aesKey;
+    private final SecretKeySpec keySpec;
+    private final IvParameterSpec iv;
+    /**
+     * CBC + NoPadding的doFinal结束后会回到init后的状态, 所以每个线程只需要init一次
+     */
+    private final ThreadLocal<Cipher> encryptCipher = ThreadLocal.withInitial(() -> newCipher(Cipher.ENCRYPT_MODE));
+    private final ThreadLocal<Cipher> decryptCipher = ThreadLocal.withInitial(() -> newCipher(Cipher.DECRYPT_MODE));
+    /**
+     * 带nonce的模式每条消息都要重新init, 这里只省掉Cipher.getInstance
+     */
+    private final ThreadLocal<Cipher> nonceCipher = ThreadLocal.withInitial(this::newNonceCipher);
+    private volatile AESMemoCache memoCache;
+    private volatile ExecutorService batchExecutor = ForkJoinPool.commonPool();
 
     /**
      * 初始化AES 256，如果key位数不足43位，会用1填充到43位
      * @param key
      */
     public AES(String key){
+        this(key, Mode.CBC);
+    }
+
+    /**
+     * 初始化AES 256，如果key位数不足43位，会用1填充到43位
+     * @param key
+     * @param mode 加密模式
+     */
+    public AES(String key, Mode mode){
         String useKey;
         if(key.length() == 43) {
             useKey = key;
@@ -32,10 +150,10 @@ public class AES {
             }
             useKey = sb.toString();
         }
-        aesKey = Base64.decodeBase64(useKey + "=");
-        if(aesKey.length != 32 && aesKey.length != 16 && aesKey.length != 24) {
-            throw new SecurityException("AES Key length == 16(for aes 128) or length == 24(for aes 192) or length == 32(for aes 256) but now  length == " + aesKey.length + ".");
-        }
+        this.mode = mode;
+        this.aesKey = checkKey(Base64.decodeBase64(useKey + "="));
+        this.keySpec = new SecretKeySpec(aesKey, "AES");
+        this.iv = new IvParameterSpec(aesKey, 0, 16);
     }
 
     /**
@@ -43,23 +161,61 @@ public class AES {
      * @param key
      */
     public AES(byte[] key){
-        aesKey = key;
-        if(aesKey.length != 32 && aesKey.length != 16 && aesKey.length != 24) {
-            throw new SecurityException("AES Key length == 16(for aes 128) or length == 24(for aes 192) or length == 32(for aes 256) but now  length == " + aesKey.length + ".");
-        }
+        this(key, Mode.CBC);
+    }
+
+    /**
+     * 初始自定义的key，key长度必须是16，24，32，分别对应 AES128，AES192，AES256
+     * @param key
+     * @param mode 加密模式
+     */
+    public AES(byte[] key, Mode mode){
+        this.mode = mode;
+        this.aesKey = checkKey(key.clone());
+        this.keySpec = new SecretKeySpec(aesKey, "AES");
+        this.iv = new IvParameterSpec(aesKey, 0, 16);
     }
 
     public int getKeySize() {
         return aesKey.length;
     }
 
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * 开启字符串加解密结果缓存, 对同一批短文本反复加解密时直接返回缓存结果, 不再经过Cipher
+     * 只作用于 encryptStringToString, encryptStringToStringURLSafe, decryptStringToString
+     * @param maxSize 加密, URL安全加密, 解密结果各自最多缓存的条数
+     * @param maxTextLength 只缓存不超过这个长度的输入
+     * @return 新的缓存, 可以用来查看命中率
+     */
+    public AESMemoCache enableMemoCache(int maxSize, int maxTextLength) {
+        AESMemoCache cache = new AESMemoCache(maxSize, maxTextLength);
+        memoCache = cache;
+        return cache;
+    }
+
+    public void disableMemoCache() {
+        memoCache = null;
+    }
+
+    /**
+     * @return 当前的结果缓存, 没有开启时返回null
+     */
+    public AESMemoCache getMemoCache() {
+        return memoCache;
+    }
+
     /**
      * 将原始文本AES加密成Base64编码过的文本
+     * UTF-8编码, 加密, Base64都在同一个线程内缓冲区里完成, 只产生结果String
      * @param originalText 原始文本
      * @return Base64编码过的文本
      */
     public String encryptStringToString(String originalText){
-        return Base64.encodeBase64String(encryptString(originalText));
+        return encryptStringToBase64(originalText, false);
     }
 
     /**
@@ -68,7 +224,7 @@ public class AES {
      * @return Base64编码过的文本，可以在GET中传输
      */
     public String encryptStringToStringURLSafe(String originalText){
-        return Base64.encodeBase64URLSafeString(encryptString(originalText));
+        return encryptStringToBase64(originalText, true);
     }
 
 
@@ -101,11 +257,34 @@ public class AES {
 
     /**
      * 将Base64后的文本进行AES解密，并返回原始文本
+     * Base64解码和解密都在同一个线程内缓冲区里完成, 只产生结果String
      * @param encryptedBase64 加密后的Base64
-     * @return 原始文本
+     * @return 原始文本, 密文不合法时返回null
      */
     public String decryptStringToString(String encryptedBase64){
-        return new String(decryptString(encryptedBase64), CHARSET);
+        if(encryptedBase64 == null) {
+            return null;
+        }
+        AESMemoCache cache = memoCache;
+        if(cache != null && cache.accepts(encryptedBase64)) {
+            String original = cache.getDecrypted(encryptedBase64);
+            if(original == null) {
+                original = decryptBase64ToString(encryptedBase64);
+                cache.putDecrypted(encryptedBase64, original);
+            }
+            return original;
+        }
+        return decryptBase64ToString(encryptedBase64);
+    }
+
+    private String decryptBase64ToString(String encryptedBase64) {
+        int maxLength = encryptedBase64.length() / 4 * 3 + 2;
+        // 只有CBC可以原地解密, 其他模式把明文放在密文后面
+        int originalOff = mode == Mode.CBC ? 0 : maxLength;
+        byte[] buffer = scratch(originalOff + maxLength);
+        int encryptedLength = Base64.decodeBase64(encryptedBase64, 0, encryptedBase64.length(), buffer, 0);
+        int length = decrypt(buffer, 0, encryptedLength, buffer, originalOff);
+        return length < 0 ? null : new String(buffer, originalOff, length, CHARSET);
     }
 
     /**
@@ -126,23 +305,141 @@ public class AES {
         return new String(decrypt(encryptedBytes), CHARSET);
     }
 
+    /**
+     * 设置批量加解密使用的线程池, 默认是ForkJoinPool.commonPool()
+     * 注意: 如果这个线程池自己的任务里也会调用 encryptAll/decryptAll, 不要用线程数固定的线程池,
+     * 否则调用方占满线程后阻塞等待的分段没有线程可以执行, 会死锁; ForkJoinPool或不限线程数的线程池没有这个问题
+     * @param executor 线程池, 每个线程第一次使用时会创建自己的Cipher, 之后一直复用
+     */
+    public void setBatchExecutor(ExecutorService executor) {
+        if(executor == null) {
+            throw new IllegalArgumentException("AES batch executor must not be null.");
+        }
+        this.batchExecutor = executor;
+    }
+
+    /**
+     * 批量将原始文本加密成Base64编码过的文本, 按线程数分段并行执行
+     * @param originalTexts 原始文本
+     * @return 和输入顺序一致的加密结果, 被中断时返回null
+     */
+    public List<String> encryptAll(List<String> originalTexts){
+        return batch(originalTexts, this::encryptStringToString);
+    }
+
+    /**
+     * 批量将Base64后的文本解密成原始文本, 按线程数分段并行执行
+     * @param encryptedBase64s 加密后的Base64
+     * @return 和输入顺序一致的原始文本, 单条密文不合法时对应位置是null, 被中断时返回null
+     */
+    public List<String> decryptAll(List<String> encryptedBase64s){
+        return batch(encryptedBase64s, this::decryptStringToString);
+    }
+
+    /**
+     * 批量加密bytes, 按线程数分段并行执行
+     * @param originalBytes 原始文本bytes
+     * @return 和输入顺序一致的加密结果, 被中断时返回null
+     */
+    public byte[][] encryptAll(byte[][] originalBytes){
+        List<byte[]> encrypted = batch(Arrays.asList(originalBytes), this::encrypt);
+        return encrypted == null ? null : encrypted.toArray(new byte[0][]);
+    }
+
+    /**
+     * 批量解密bytes, 按线程数分段并行执行
+     * @param encryptedBytes 加密后的bytes
+     * @return 和输入顺序一致的原始文本bytes, 单条密文不合法时对应位置是null, 被中断时返回null
+     */
+    public byte[][] decryptAll(byte[][] encryptedBytes){
+        List<byte[]> decrypted = batch(Arrays.asList(encryptedBytes), this::decrypt);
+        return decrypted == null ? null : decrypted.toArray(new byte[0][]);
+    }
+
+    /**
+     * 将原始文本AES-GCM加密成Base64编码过的文本, aad不会被加密, 但解密时必须提供相同的aad
+     * @param originalText 原始文本
+     * @param aad 附加认证数据, 可以是null
+     * @return Base64编码过的文本
+     */
+    public String encryptStringToString(String originalText, String aad){
+        return Base64.encodeBase64String(encrypt(originalText.getBytes(CHARSET), aadBytes(aad)));
+    }
+
+    /**
+     * 将原始文本AES-GCM加密成Base64编码过的文本(URL安全), aad不会被加密, 但解密时必须提供相同的aad
+     * @param originalText 原始文本
+     * @param aad 附加认证数据, 可以是null
+     * @return Base64编码过的文本，可以在GET中传输
+     */
+    public String encryptStringToStringURLSafe(String originalText, String aad){
+        return Base64.encodeBase64URLSafeString(encrypt(originalText.getBytes(CHARSET), aadBytes(aad)));
+    }
+
+    /**
+     * 将AES-GCM加密后的Base64(普通或URL安全都可以)解密成原始文本
+     * @param encryptedBase64 加密后的Base64
+     * @param aad 加密时使用的附加认证数据, 可以是null
+     * @return 原始文本, 密文或aad被篡改时返回null
+     */
+    public String decryptStringToString(String encryptedBase64, String aad){
+        byte[] original = decrypt(Base64.decodeBase64(encryptedBase64), aadBytes(aad));
+        return original == null ? null : new String(original, CHARSET);
+    }
+
+    /**
+     * 带附加认证数据的加密, 只有GCM模式支持
+     * @param originalBytes 原始文本bytes
+     * @param aad 附加认证数据, 可以是null
+     * @return 加密后的bytes
+     */
+    public byte[] encrypt(byte[] originalBytes, byte[] aad){
+        checkAad(aad);
+        try {
+            byte[] encrypted = new byte[getEncryptedLength(originalBytes.length)];
+            encrypt(ByteBuffer.wrap(originalBytes), ByteBuffer.wrap(encrypted), aad);
+            return encrypted;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 带附加认证数据的解密, 只有GCM模式支持
+     * @param encryptedBytes 加密后的bytes
+     * @param aad 加密时使用的附加认证数据, 可以是null
+     * @return 原始文本bytes, 密文或aad被篡改时返回null
+     */
+    public byte[] decrypt(byte[] encryptedBytes, byte[] aad){
+        checkAad(aad);
+        if(encryptedBytes == null) {
+            return null;
+        }
+        try {
+            byte[] original = new byte[Math.max(encryptedBytes.length - mode.headerLength() - mode.tagLength, 0)];
+            int length = decrypt(ByteBuffer.wrap(encryptedBytes), ByteBuffer.wrap(original), aad);
+            if(length < 0) {
+                return null;
+            }
+            // CBC会去掉填充, 结果比密文短
+            return length == original.length ? original : Arrays.copyOf(original, length);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
     /**
      * 将原始文本bytes AES加密成加密后的bytes
      * @param originalBytes 原始文本bytes
      * @return 加密后的bytes
      */
     public byte[] encrypt(byte[] originalBytes){
-        try(ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
-            byteArrayOutputStream.write(originalBytes);
-            byte[] padBytes = encode(byteArrayOutputStream.size());
-            byteArrayOutputStream.write(padBytes);
-            byte[] unencrypted = byteArrayOutputStream.toByteArray();
-
-            Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
-            SecretKeySpec keySpec = new SecretKeySpec(aesKey, "AES");
-            IvParameterSpec iv = new IvParameterSpec(aesKey, 0, 16);
-            cipher.init(Cipher.ENCRYPT_MODE, keySpec, iv);
-            return cipher.doFinal(unencrypted);
+        try {
+            byte[] encrypted = new byte[getEncryptedLength(originalBytes.length)];
+            encrypt(originalBytes, 0, originalBytes.length, encrypted, 0);
+            return encrypted;
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -158,17 +455,23 @@ public class AES {
         if(encryptedBytes == null) {
             return null;
         }
+        if(mode != Mode.CBC) {
+            try {
+                byte[] original = new byte[Math.max(encryptedBytes.length - mode.headerLength() - mode.tagLength, 0)];
+                return decrypt(encryptedBytes, 0, encryptedBytes.length, original, 0) < 0 ? null : original;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+        if(encryptedBytes.length % 16 != 0){
+            return null;
+        }
         byte[] original = null;
         try {
-            Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
-            SecretKeySpec key_spec = new SecretKeySpec(aesKey, "AES");
-            IvParameterSpec iv = new IvParameterSpec(Arrays.copyOfRange(aesKey, 0, 16));
-            cipher.init(Cipher.DECRYPT_MODE, key_spec, iv);
-            if(encryptedBytes.length % 16 != 0){
-                return null;
-            }
-            original = cipher.doFinal(encryptedBytes);
+            original = decryptCipher.get().doFinal(encryptedBytes);
         } catch (Exception e) {
+            decryptCipher.remove();
             e.printStackTrace();
         }
         try {
@@ -183,26 +486,793 @@ public class AES {
 
     }
 
-    private static byte[] encode(int count) {
-        int amountToPad = 16 - (count % 16);
-        char padChr = chr(amountToPad);
-        StringBuilder tmp = new StringBuilder();
-        for (int index = 0; index < amountToPad; index++) {
-            tmp.append(padChr);
+    /**
+     * 流式加密, 按分段读取并加密写入out, 结果格式和 encrypt(byte[]) 完全一致, 内存占用与数据大小无关
+     * 不会关闭in和out
+     * @param in 原始数据
+     * @param out 加密后的数据
+     * @return 写入out的字节数
+     * @throws IOException 读写失败
+     */
+    public long encrypt(InputStream in, OutputStream out) throws IOException {
+        long written = 0;
+        boolean completed = false;
+        try {
+            Cipher cipher;
+            if(mode == Mode.CBC) {
+                cipher = encryptCipher.get();
+            } else {
+                byte[] header = newHeader();
+                cipher = initNonceCipher(Cipher.ENCRYPT_MODE, header, null);
+                out.write(header);
+                written += header.length;
+            }
+            byte[] buffer = new byte[STREAM_SEGMENT_SIZE];
+            byte[] encrypted = new byte[STREAM_SEGMENT_SIZE + BLOCK_SIZE];
+            long total = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+                int produced = cipher.update(buffer, 0, n, encrypted, 0);
+                out.write(encrypted, 0, produced);
+                written += produced;
+            }
+            int pad = mode == Mode.CBC ? fillPad(buffer, 0, total) : 0;
+            int produced = cipher.doFinal(buffer, 0, pad, encrypted, 0);
+            out.write(encrypted, 0, produced);
+            written += produced;
+            completed = true;
+            return written;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("AES stream encrypt failed.", e);
+        } finally {
+            if(!completed) {
+                discardCipher();
+            }
         }
-        return tmp.toString().getBytes(CHARSET);
     }
 
-    private static byte[] decode(byte[] decrypted) {
-        int pad = decrypted[decrypted.length - 1];
-        if (pad < 1 || pad > 32) {
-            pad = 0;
+    /**
+     * 流式解密, 按分段读取并解密写入out, 能解密 encrypt(byte[]) 或 encrypt(InputStream, OutputStream) 的结果
+     * 不会关闭in和out
+     * @param in 加密后的数据(注意不是 base64后的数据)
+     * @param out 原始数据
+     * @return 写入out的字节数
+     * @throws IOException 读写失败, 或者密文不合法
+     */
+    public long decrypt(InputStream in, OutputStream out) throws IOException {
+        if(mode != Mode.CBC) {
+            return decryptWithNonce(in, out);
+        }
+        Cipher cipher = decryptCipher.get();
+        boolean completed = false;
+        try {
+            byte[] buffer = new byte[STREAM_SEGMENT_SIZE];
+            // 前MAX_PAD位是上一轮保留下来的明文
+            byte[] decrypted = new byte[MAX_PAD + STREAM_SEGMENT_SIZE + BLOCK_SIZE];
+            int held = 0;
+            long total = 0;
+            long written = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+                held += cipher.update(buffer, 0, n, decrypted, held);
+                if(held > MAX_PAD) {
+                    out.write(decrypted, 0, held - MAX_PAD);
+                    written += held - MAX_PAD;
+                    System.arraycopy(decrypted, held - MAX_PAD, decrypted, 0, MAX_PAD);
+                    held = MAX_PAD;
+                }
+            }
+            // CBC的密文至少有一个填充块, 空输入和 decrypt(byte[]) 一样视为不合法
+            if(total == 0 || total % BLOCK_SIZE != 0) {
+                throw new IOException("AES encrypted length must be a multiple of 16 but now length == " + total + ".");
+            }
+            held += cipher.doFinal(decrypted, held);
+            completed = true;
+            if(held > 0) {
+                int length = unpad(decrypted, 0, held);
+                if(length < 0) {
+                    throw new IOException("AES padding is longer than the decrypted data.");
+                }
+                out.write(decrypted, 0, length);
+                written += length;
+            }
+            return written;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("AES stream decrypt failed.", e);
+        } finally {
+            if(!completed) {
+                decryptCipher.remove();
+            }
+        }
+    }
+
+    /**
+     * 计算加密后的长度, CBC的自定义填充总是会补1到16位, 其他模式加上头和tag的长度
+     * @param length 原始数据长度
+     * @return 加密后的长度
+     */
+    public int getEncryptedLength(int length) {
+        if(mode == Mode.CBC) {
+            return length + BLOCK_SIZE - length % BLOCK_SIZE;
+        }
+        return length + mode.headerLength() + mode.tagLength;
+    }
+
+    /**
+     * 加密到调用方提供的数组, 只有最后一块和填充用一个16位的临时块, 不产生其他中间数组
+     * CBC模式下in和out可以是同一个数组(outOff在off前后都可以), 其他模式下in和out不能有重叠部分
+     * @param in 原始数据
+     * @param off 原始数据开始位置
+     * @param len 原始数据长度
+     * @param out 输出数组, 从outOff开始至少要有 getEncryptedLength(len) 的空间
+     * @param outOff 输出开始位置
+     * @return 写入out的字节数
+     */
+    public int encrypt(byte[] in, int off, int len, byte[] out, int outOff) {
+        int encryptedLength = getEncryptedLength(len);
+        if(out.length - outOff < encryptedLength) {
+            throw new IllegalArgumentException("AES output buffer too small, need " + encryptedLength + " but only " + (out.length - outOff) + ".");
+        }
+        if(mode != Mode.CBC) {
+            return encrypt(ByteBuffer.wrap(in, off, len), ByteBuffer.wrap(out, outOff, encryptedLength));
+        }
+        Cipher cipher = encryptCipher.get();
+        try {
+            int full = len - len % BLOCK_SIZE;
+            // 同一个数组且outOff > off时update会覆盖还没读的尾部, 先把尾部和填充放到单独的块里
+            byte[] tail = new byte[BLOCK_SIZE];
+            System.arraycopy(in, off + full, tail, 0, len - full);
+            fillPad(tail, len - full, len);
+            int tailOff = outOff + cipher.update(in, off, full, out, outOff);
+            cipher.doFinal(tail, 0, BLOCK_SIZE, out, tailOff);
+            return encryptedLength;
+        } catch (GeneralSecurityException e) {
+            encryptCipher.remove();
+            throw new IllegalStateException("AES encrypt failed.", e);
+        }
+    }
+
+    /**
+     * 从调用方提供的数组解密到调用方提供的数组
+     * CBC模式下in和out可以是同一个数组, 其他模式下in和out不能有重叠部分
+     * @param in 加密后的数据
+     * @param off 开始位置
+     * @param len 长度, CBC模式下必须是16的倍数
+     * @param out 输出数组, 从outOff开始至少要有len的空间(CBC的填充会先被解密进去, 但不计入返回值)
+     * @param outOff 输出开始位置
+     * @return 原始数据长度, 密文不合法时返回-1
+     */
+    public int decrypt(byte[] in, int off, int len, byte[] out, int outOff) {
+        if(mode != Mode.CBC) {
+            return decrypt(ByteBuffer.wrap(in, off, len), ByteBuffer.wrap(out, outOff, out.length - outOff));
         }
-        return Arrays.copyOfRange(decrypted, 0, decrypted.length - pad);
+        if(len == 0 || len % BLOCK_SIZE != 0) {
+            return -1;
+        }
+        if(out.length - outOff < len) {
+            throw new IllegalArgumentException("AES output buffer too small, need " + len + " but only " + (out.length - outOff) + ".");
+        }
+        try {
+            int produced = decryptCipher.get().doFinal(in, off, len, out, outOff);
+            return unpad(out, outOff, produced);
+        } catch (GeneralSecurityException e) {
+            decryptCipher.remove();
+            throw new IllegalStateException("AES decrypt failed.", e);
+        }
+    }
+
+    /**
+     * 把src剩余的数据全部加密写入dst, 支持direct buffer, 填充直接写在dst里
+     * 完成后src的position到limit, dst的position后移返回值那么多
+     * @param src 原始数据
+     * @param dst 输出, 剩余空间至少要有 getEncryptedLength(src.remaining())
+     * @return 写入dst的字节数
+     */
+    public int encrypt(ByteBuffer src, ByteBuffer dst) {
+        return encrypt(src, dst, null);
     }
 
-    private static char chr(int a) {
-        byte target = (byte) (a & 0xFF);
-        return (char) target;
+    private int encrypt(ByteBuffer src, ByteBuffer dst, byte[] aad) {
+        int len = src.remaining();
+        int encryptedLength = getEncryptedLength(len);
+        if(dst.remaining() < encryptedLength) {
+            throw new BufferOverflowException();
+        }
+        if(mode == Mode.CTR) {
+            byte[] header = newHeader();
+            dst.put(header);
+            crypt(header, src, dst);
+            return encryptedLength;
+        }
+        if(mode == Mode.GCM) {
+            byte[] header = newHeader();
+            try {
+                Cipher cipher = initNonceCipher(Cipher.ENCRYPT_MODE, header, aad);
+                dst.put(header);
+                cipher.doFinal(src, dst);
+                return encryptedLength;
+            } catch (GeneralSecurityException e) {
+                nonceCipher.remove();
+                throw new IllegalStateException("AES " + mode + " encrypt failed.", e);
+            }
+        }
+        try {
+            return encryptCbcFinal(encryptCipher.get(), src, dst);
+        } catch (GeneralSecurityException e) {
+            encryptCipher.remove();
+            throw new IllegalStateException("AES encrypt failed.", e);
+        }
+    }
+
+    /**
+     * CBC加密的最后一段: 整块部分直接update, 剩余部分和填充写进dst后原地doFinal
+     * @param cipher 可能已经update过前面数据的CBC Cipher
+     * @param src 最后一段原始数据
+     * @param dst 输出
+     * @return 写入dst的字节数
+     */
+    private static int encryptCbcFinal(Cipher cipher, ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+        int len = src.remaining();
+        int full = len - len % BLOCK_SIZE;
+        ByteBuffer head = src.duplicate();
+        head.limit(head.position() + full);
+        cipher.update(head, dst);
+        src.position(head.position());
+
+        int tailOff = dst.position();
+        dst.put(src);
+        int pad = BLOCK_SIZE - len % BLOCK_SIZE;
+        for (int i = 0; i < pad; i++) {
+            dst.put((byte) pad);
+        }
+        ByteBuffer tail = dst.duplicate();
+        tail.limit(dst.position()).position(tailOff);
+        ByteBuffer tailOut = tail.duplicate();
+        cipher.doFinal(tail, tailOut);
+        return full + BLOCK_SIZE;
+    }
+
+    /**
+     * 文件到文件加密, 按FILE_WINDOW_SIZE分窗口用FileChannel.map映射读写, 堆内存占用和文件大小无关
+     * 结果格式和 encrypt(byte[]) 一致, out已存在时会被覆盖
+     * GCM模式不支持(解密时JCE会把整个密文缓存在堆里), 大文件请用CBC或CTR
+     * @param in 原始文件
+     * @param out 加密后的文件
+     * @return 加密后的文件大小
+     * @throws IOException 读写失败
+     */
+    public long encryptFile(Path in, Path out) throws IOException {
+        checkFileMode();
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel dst = openOutput(out)) {
+            long size = src.size();
+            if(mode == Mode.CTR) {
+                byte[] header = newHeader();
+                dst.write(ByteBuffer.wrap(header), 0);
+                for (long pos = 0; pos < size; pos += FILE_WINDOW_SIZE) {
+                    long len = Math.min(FILE_WINDOW_SIZE, size - pos);
+                    crypt(header, pos / BLOCK_SIZE, src.map(FileChannel.MapMode.READ_ONLY, pos, len), dst.map(FileChannel.MapMode.READ_WRITE, header.length + pos, len));
+                }
+                return header.length + size;
+            }
+            Cipher cipher = encryptCipher.get();
+            boolean completed = false;
+            try {
+                long pos = 0;
+                for (; size - pos > FILE_WINDOW_SIZE; pos += FILE_WINDOW_SIZE) {
+                    cipher.update(src.map(FileChannel.MapMode.READ_ONLY, pos, FILE_WINDOW_SIZE), dst.map(FileChannel.MapMode.READ_WRITE, pos, FILE_WINDOW_SIZE));
+                }
+                int len = (int) (size - pos);
+                int encryptedLength = encryptCbcFinal(cipher, src.map(FileChannel.MapMode.READ_ONLY, pos, len), dst.map(FileChannel.MapMode.READ_WRITE, pos, getEncryptedLength(len)));
+                completed = true;
+                return pos + encryptedLength;
+            } catch (GeneralSecurityException e) {
+                throw new IOException("AES file encrypt failed.", e);
+            } finally {
+                if(!completed) {
+                    encryptCipher.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 文件到文件解密, 按FILE_WINDOW_SIZE分窗口用FileChannel.map映射读写, 堆内存占用和文件大小无关
+     * 能解密 encryptFile 或 encrypt(byte[]) 的结果, out已存在时会被覆盖
+     * @param in 加密后的文件
+     * @param out 原始文件
+     * @return 原始文件大小
+     * @throws IOException 读写失败, 或者密文不合法
+     */
+    public long decryptFile(Path in, Path out) throws IOException {
+        checkFileMode();
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel dst = openOutput(out)) {
+            long size = src.size();
+            if(mode == Mode.CTR) {
+                byte[] header = new byte[mode.headerLength()];
+                readFully(src, ByteBuffer.wrap(header), 0);
+                if(header[0] != mode.id) {
+                    throw new IOException("AES header mode id " + header[0] + " does not match " + mode + ".");
+                }
+                long length = size - header.length;
+                for (long pos = 0; pos < length; pos += FILE_WINDOW_SIZE) {
+                    long len = Math.min(FILE_WINDOW_SIZE, length - pos);
+                    crypt(header, pos / BLOCK_SIZE, src.map(FileChannel.MapMode.READ_ONLY, header.length + pos, len), dst.map(FileChannel.MapMode.READ_WRITE, pos, len));
+                }
+                return length;
+            }
+            if(size == 0 || size % BLOCK_SIZE != 0) {
+                throw new IOException("AES encrypted length must be a multiple of 16 but now length == " + size + ".");
+            }
+            Cipher cipher = decryptCipher.get();
+            boolean completed = false;
+            try {
+                // 先单独解出最后一块拿到填充长度, 这样输出文件可以直接映射成最终大小
+                long length = size - lastBlockPad(src, size);
+                long aligned = length - length % BLOCK_SIZE;
+                for (long pos = 0; pos < aligned; pos += FILE_WINDOW_SIZE) {
+                    long len = Math.min(FILE_WINDOW_SIZE, aligned - pos);
+                    cipher.update(src.map(FileChannel.MapMode.READ_ONLY, pos, len), dst.map(FileChannel.MapMode.READ_WRITE, pos, len));
+                }
+                ByteBuffer tail = ByteBuffer.allocate((int) (size - aligned));
+                cipher.doFinal(src.map(FileChannel.MapMode.READ_ONLY, aligned, size - aligned), tail);
+                completed = true;
+                tail.flip().limit((int) (length - aligned));
+                dst.write(tail, aligned);
+                return length;
+            } catch (GeneralSecurityException e) {
+                throw new IOException("AES file decrypt failed.", e);
+            } finally {
+                if(!completed) {
+                    decryptCipher.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 把src剩余的数据全部解密写入dst, 支持direct buffer
+     * 完成后src的position到limit, dst的position后移返回值那么多(CBC的填充会被解密到position之后)
+     * @param src 加密后的数据, CBC模式下剩余长度必须是16的倍数
+     * @param dst 输出, 剩余空间至少要有 src.remaining()
+     * @return 原始数据长度, 密文不合法(或GCM校验失败)时返回-1且不移动position
+     */
+    public int decrypt(ByteBuffer src, ByteBuffer dst) {
+        return decrypt(src, dst, null);
+    }
+
+    private int decrypt(ByteBuffer src, ByteBuffer dst, byte[] aad) {
+        int len = src.remaining();
+        if(mode != Mode.CBC) {
+            int headerLength = mode.headerLength();
+            int originalLength = len - headerLength - mode.tagLength;
+            if(originalLength < 0 || src.get(src.position()) != mode.id) {
+                return -1;
+            }
+            if(dst.remaining() < originalLength) {
+                throw new BufferOverflowException();
+            }
+            int srcStart = src.position();
+            byte[] header = new byte[headerLength];
+            src.get(header);
+            if(mode == Mode.CTR) {
+                crypt(header, src, dst);
+                return originalLength;
+            }
+            int start = dst.position();
+            try {
+                initNonceCipher(Cipher.DECRYPT_MODE, header, aad).doFinal(src, dst);
+                return originalLength;
+            } catch (AEADBadTagException e) {
+                src.position(srcStart);
+                dst.position(start);
+                return -1;
+            } catch (GeneralSecurityException e) {
+                nonceCipher.remove();
+                throw new IllegalStateException("AES " + mode + " decrypt failed.", e);
+            }
+        }
+        if(len == 0 || len % BLOCK_SIZE != 0) {
+            return -1;
+        }
+        if(dst.remaining() < len) {
+            throw new BufferOverflowException();
+        }
+        int start = dst.position();
+        int srcStart = src.position();
+        try {
+            decryptCipher.get().doFinal(src, dst);
+        } catch (GeneralSecurityException e) {
+            decryptCipher.remove();
+            throw new IllegalStateException("AES decrypt failed.", e);
+        }
+        int pad = padOf(dst.get(dst.position() - 1));
+        if(pad > len) {
+            src.position(srcStart);
+            dst.position(start);
+            return -1;
+        }
+        dst.position(dst.position() - pad);
+        return len - pad;
+    }
+
+    /**
+     * 带nonce模式的流式解密, 头读完后直接边读边解, GCM校验失败会抛出IOException
+     */
+    private long decryptWithNonce(InputStream in, OutputStream out) throws IOException {
+        byte[] header = new byte[mode.headerLength()];
+        int read = 0;
+        while (read < header.length) {
+            int n = in.read(header, read, header.length - read);
+            if(n == -1) {
+                throw new EOFException("AES " + mode + " header is incomplete.");
+            }
+            read += n;
+        }
+        if(header[0] != mode.id) {
+            throw new IOException("AES header mode id " + header[0] + " does not match " + mode + ".");
+        }
+        boolean completed = false;
+        try {
+            Cipher cipher = initNonceCipher(Cipher.DECRYPT_MODE, header, null);
+            byte[] buffer = new byte[STREAM_SEGMENT_SIZE];
+            byte[] decrypted = new byte[STREAM_SEGMENT_SIZE + BLOCK_SIZE];
+            long written = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                int produced = cipher.update(buffer, 0, n, decrypted, 0);
+                out.write(decrypted, 0, produced);
+                written += produced;
+            }
+            // GCM解密时Provider会先缓存全部密文, 校验通过后才在doFinal里输出
+            byte[] last = cipher.doFinal();
+            out.write(last);
+            written += last.length;
+            completed = true;
+            return written;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("AES stream decrypt failed.", e);
+        } finally {
+            if(!completed) {
+                nonceCipher.remove();
+            }
+        }
+    }
+
+    /**
+     * CTR加解密是同一个操作, 超过PARALLEL_THRESHOLD的数据按段拆开并行处理, 每段从自己的计数器开始
+     * @param header 头, 里面有nonce
+     * @param src 输入, 处理完position到limit
+     * @param dst 输出, 处理完position后移src.remaining()
+     */
+    private void crypt(byte[] header, ByteBuffer src, ByteBuffer dst) {
+        crypt(header, 0, src, dst);
+    }
+
+    /**
+     * 同 crypt(byte[], ByteBuffer, ByteBuffer), src是整段数据中从firstBlock块开始的一部分
+     */
+    private void crypt(byte[] header, long firstBlock, ByteBuffer src, ByteBuffer dst) {
+        int len = src.remaining();
+        if(len >= PARALLEL_THRESHOLD) {
+            int segments = (len + PARALLEL_SEGMENT_SIZE - 1) / PARALLEL_SEGMENT_SIZE;
+            ForkJoinPool.commonPool().invoke(new CtrTask(header, firstBlock, src, dst, 0, segments));
+        } else {
+            ctrSegment(header, firstBlock, src.duplicate(), dst.duplicate());
+        }
+        src.position(src.limit());
+        dst.position(dst.position() + len);
+    }
+
+    private void ctrSegment(byte[] header, long blockIndex, ByteBuffer src, ByteBuffer dst) {
+        Cipher cipher = nonceCipher.get();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(counterAt(header, 1, blockIndex)));
+            cipher.doFinal(src, dst);
+        } catch (GeneralSecurityException e) {
+            nonceCipher.remove();
+            throw new IllegalStateException("AES " + mode + " failed.", e);
+        }
+    }
+
+    /**
+     * 把[from, to)段继续对半拆分, 直到只剩一段
+     */
+    private class CtrTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final byte[] header;
+        private final long firstBlock;
+        private final ByteBuffer src;
+        private final ByteBuffer dst;
+        private final int from;
+        private final int to;
+
+        CtrTask(byte[] header, long firstBlock, ByteBuffer src, ByteBuffer dst, int from, int to) {
+            this.header = header;
+            this.firstBlock = firstBlock;
+            this.src = src;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CtrTask(header, firstBlock, src, dst, from, middle), new CtrTask(header, firstBlock, src, dst, middle, to));
+                return;
+            }
+            int segmentOff = from * PARALLEL_SEGMENT_SIZE;
+            int segmentLen = Math.min(PARALLEL_SEGMENT_SIZE, src.remaining() - segmentOff);
+            ByteBuffer segmentSrc = src.duplicate();
+            segmentSrc.limit(src.position() + segmentOff + segmentLen).position(src.position() + segmentOff);
+            ByteBuffer segmentDst = dst.duplicate();
+            segmentDst.limit(dst.position() + segmentOff + segmentLen).position(dst.position() + segmentOff);
+            ctrSegment(header, firstBlock + segmentOff / BLOCK_SIZE, segmentSrc, segmentDst);
+        }
+    }
+
+    /**
+     * 生成一个新的头: [模式id][nonce], nonce每条消息都从SecureRandom完整随机生成
+     * 不用实例内计数, 因为同一个key可能同时存在多个实例(缓存清空, 重启, 多台机器), 计数会从相同的值开始
+     */
+    private byte[] newHeader() {
+        byte[] header = new byte[mode.headerLength()];
+        header[0] = mode.id;
+        byte[] nonce = new byte[mode.nonceLength];
+        RANDOM.nextBytes(nonce);
+        System.arraycopy(nonce, 0, header, 1, nonce.length);
+        return header;
+    }
+
+    /**
+     * 用头里的nonce初始化Cipher, GCM会把头和aad都加入认证
+     */
+    private Cipher initNonceCipher(int cipherMode, byte[] header, byte[] aad) throws GeneralSecurityException {
+        Cipher cipher = nonceCipher.get();
+        if(mode == Mode.GCM) {
+            cipher.init(cipherMode, keySpec, new GCMParameterSpec(mode.tagLength * 8, header, 1, mode.nonceLength));
+            cipher.updateAAD(header);
+            if(aad != null) {
+                cipher.updateAAD(aad);
+            }
+        } else {
+            cipher.init(cipherMode, keySpec, new IvParameterSpec(header, 1, mode.nonceLength));
+        }
+        return cipher;
+    }
+
+    /**
+     * 用CBC单独解密最后一块(IV是前一块密文, 只有一块时是key的IV), 取得填充长度
+     */
+    private int lastBlockPad(FileChannel channel, long size) throws IOException, GeneralSecurityException {
+        byte[] blocks = new byte[2 * BLOCK_SIZE];
+        long start = Math.max(size - blocks.length, 0);
+        readFully(channel, ByteBuffer.wrap(blocks, 0, (int) (size - start)), start);
+        Cipher cipher = Cipher.getInstance(Mode.CBC.transformation);
+        if(size > BLOCK_SIZE) {
+            cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(blocks, 0, BLOCK_SIZE));
+        } else {
+            cipher.init(Cipher.DECRYPT_MODE, keySpec, iv);
+        }
+        byte[] last = cipher.doFinal(blocks, (int) (size - start) - BLOCK_SIZE, BLOCK_SIZE);
+        int pad = padOf(last[BLOCK_SIZE - 1]);
+        if(pad > size) {
+            throw new IOException("AES padding is longer than the decrypted data.");
+        }
+        return pad;
+    }
+
+    private void checkFileMode() {
+        if(mode == Mode.GCM) {
+            throw new UnsupportedOperationException("AES file encryption does not support " + mode + ", use CBC or CTR.");
+        }
+    }
+
+    private static FileChannel openOutput(Path out) throws IOException {
+        return FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if(n == -1) {
+                throw new EOFException("AES encrypted file is incomplete.");
+            }
+            position += n;
+        }
+    }
+
+    private void checkAad(byte[] aad) {
+        if(aad != null && mode != Mode.GCM) {
+            throw new UnsupportedOperationException("AES additional authenticated data is only supported in GCM mode, now " + mode + ".");
+        }
+    }
+
+    private static byte[] aadBytes(String aad) {
+        return aad == null ? null : aad.getBytes(CHARSET);
+    }
+
+    /**
+     * 按线程数把输入切成连续的几段, 除第一段外都提交到batchExecutor, 第一段在当前线程执行, 然后阻塞等待其他段完成
+     * 每段写回自己的下标范围, 所以结果顺序和输入一致, Cipher和缓冲区都是每个线程各自复用的
+     */
+    @SuppressWarnings("unchecked")
+    private <T, R> List<R> batch(List<T> inputs, Function<T, R> function) {
+        int size = inputs.size();
+        ExecutorService executor = batchExecutor;
+        int parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism() : Runtime.getRuntime().availableProcessors();
+        int chunks = Math.max(1, Math.min(parallelism, size / BATCH_MIN_CHUNK));
+        Object[] results = new Object[size];
+        List<Future<?>> futures = new ArrayList<>(chunks - 1);
+        int chunkSize = (size + chunks - 1) / chunks;
+        for (int from = chunkSize; from < size; from += chunkSize) {
+            int start = from;
+            int end = Math.min(size, from + chunkSize);
+            futures.add(executor.submit(() -> batchRange(inputs, function, results, start, end)));
+        }
+        batchRange(inputs, function, results, 0, Math.min(size, chunkSize));
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            e.printStackTrace();
+            return null;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        }
+        return (List<R>) Arrays.asList(results);
+    }
+
+    private static <T, R> void batchRange(List<T> inputs, Function<T, R> function, Object[] results, int from, int to) {
+        for (int i = from; i < to; i++) {
+            results[i] = function.apply(inputs.get(i));
+        }
+    }
+
+    private void discardCipher() {
+        if(mode == Mode.CBC) {
+            encryptCipher.remove();
+        } else {
+            nonceCipher.remove();
+        }
+    }
+
+    /**
+     * 128位大端计数器加上块序号, 和CTR模式自身的计数器递增方式一致
+     * @param nonce nonce所在数组
+     * @param nonceOff nonce开始位置
+     * @param blockIndex 块序号
+     * @return 这一块的计数器
+     */
+    private static byte[] counterAt(byte[] nonce, int nonceOff, long blockIndex) {
+        byte[] counter = Arrays.copyOfRange(nonce, nonceOff, nonceOff + BLOCK_SIZE);
+        long carry = blockIndex;
+        for (int i = BLOCK_SIZE - 1; i >= 0 && carry != 0; i--) {
+            long sum = (counter[i] & 0xFF) + (carry & 0xFF);
+            counter[i] = (byte) sum;
+            carry = (carry >>> 8) + (sum >>> 8);
+        }
+        return counter;
+    }
+
+    /**
+     * 创建并初始化一个CBC的Cipher, 只在每个线程第一次使用(或出错丢弃后)时调用
+     * @param cipherMode Cipher.ENCRYPT_MODE 或 Cipher.DECRYPT_MODE
+     * @return 已经init的Cipher
+     */
+    private Cipher newCipher(int cipherMode) {
+        try {
+            Cipher cipher = Cipher.getInstance(Mode.CBC.transformation);
+            cipher.init(cipherMode, keySpec, iv);
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot initialize " + Mode.CBC.transformation + ".", e);
+        }
+    }
+
+    private Cipher newNonceCipher() {
+        try {
+            return Cipher.getInstance(mode.transformation);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot initialize " + mode.transformation + ".", e);
+        }
+    }
+
+    private static byte[] checkKey(byte[] key) {
+        if(key.length != 32 && key.length != 16 && key.length != 24) {
+            throw new SecurityException("AES Key length == 16(for aes 128) or length == 24(for aes 192) or length == 32(for aes 256) but now  length == " + key.length + ".");
+        }
+        return key;
+    }
+
+    private String encryptStringToBase64(String originalText, boolean urlSafe) {
+        AESMemoCache cache = memoCache;
+        if(cache != null && mode == Mode.CBC && cache.accepts(originalText)) {
+            String encrypted = cache.getEncrypted(originalText, urlSafe);
+            if(encrypted == null) {
+                encrypted = encryptStringToBase64Uncached(originalText, urlSafe);
+                cache.putEncrypted(originalText, urlSafe, encrypted);
+            }
+            return encrypted;
+        }
+        return encryptStringToBase64Uncached(originalText, urlSafe);
+    }
+
+    /**
+     * 缓冲区布局: [密文][明文(非CBC时)][Base64], CBC在密文位置原地加密
+     */
+    private String encryptStringToBase64Uncached(String originalText, boolean urlSafe) {
+        try {
+            int length = StringUtils.utf8Length(originalText);
+            int encryptedLength = getEncryptedLength(length);
+            int originalOff = mode == Mode.CBC ? 0 : encryptedLength;
+            int base64Off = Math.max(originalOff + length, encryptedLength);
+            int base64Length = Base64.getEncodedLength(encryptedLength, urlSafe);
+            byte[] buffer = scratch(base64Off + base64Length);
+            StringUtils.encodeUtf8(originalText, buffer, originalOff);
+            encrypt(buffer, originalOff, length, buffer, 0);
+            Base64.encodeBase64(buffer, 0, encryptedLength, buffer, base64Off, urlSafe);
+            return new String(buffer, base64Off, base64Length, StandardCharsets.ISO_8859_1);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 取得当前线程至少size大的缓冲区
+     */
+    private static byte[] scratch(int size) {
+        byte[] buffer = SCRATCH.get();
+        if(buffer.length >= size) {
+            return buffer;
+        }
+        if(size > SCRATCH_RETAIN_SIZE) {
+            return new byte[size];
+        }
+        buffer = new byte[Math.min(Math.max(size, buffer.length * 2), SCRATCH_RETAIN_SIZE)];
+        SCRATCH.set(buffer);
+        return buffer;
+    }
+
+    /**
+     * 写入自定义填充, 填充值和填充长度相同, 总是补1到16位
+     * @param buf 写入的数组
+     * @param off 写入位置
+     * @param count 已有数据的总长度
+     * @return 填充长度
+     */
+    private static int fillPad(byte[] buf, int off, long count) {
+        int pad = BLOCK_SIZE - (int) (count % BLOCK_SIZE);
+        Arrays.fill(buf, off, off + pad, (byte) pad);
+        return pad;
+    }
+
+    private static int padOf(byte last) {
+        return last < 1 || last > MAX_PAD ? 0 : last;
+    }
+
+    /**
+     * 去掉填充后的长度
+     * @param decrypted 解密后的数据
+     * @param off 解密数据的开始位置
+     * @param len 解密数据的长度
+     * @return 去掉填充后的长度, 填充不合法时返回-1
+     */
+    private static int unpad(byte[] decrypted, int off, int len) {
+        int pad = padOf(decrypted[off + len - 1]);
+        return pad > len ? -1 : len - pad;
+    }
+
+    private static byte[] decode(byte[] decrypted) {
+        return Arrays.copyOfRange(decrypted, 0, decrypted.length - padOf(decrypted[decrypted.length - 1]));
     }
 }
@@ -0,0 +1,194 @@
+package com.ruterfu.utils.aes;
+
+import com.ruterfu.thirdpkg.apache.codec.Base64;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 多个AES key组成的key环, 密文格式: [key id 1位][AES密文]
+ * 加密总是使用当前key, 解密按密文里的key id直接取对应的AES实例, 不需要逐个尝试
+ * key的增删和轮换是写时复制的, 正在进行的加解密继续使用旧的快照, 不会被阻塞
+ */
+public class AESKeyRing {
+    private static final Charset CHARSET = StandardCharsets.UTF_8;
+    private static final int MAX_KEY_ID = 255;
+
+    /**
+     * 不可变的key快照
+     */
+    private static class Keys {
+        private final AES[] byId;
+        private final int currentId;
+
+        Keys(AES[] byId, int currentId) {
+            this.byId = byId;
+            this.currentId = currentId;
+        }
+    }
+
+    private final AtomicReference<Keys> keys = new AtomicReference<>(new Keys(new AES[MAX_KEY_ID + 1], -1));
+
+    public AESKeyRing() {
+    }
+
+    /**
+     * 初始化并设置当前key
+     * @param keyId key id, 0到255
+     * @param aes 这个key id对应的AES
+     */
+    public AESKeyRing(int keyId, AES aes) {
+        rotate(keyId, aes);
+    }
+
+    /**
+     * 加入(或替换)一个key并设置为当前key, 之后的加密都用它, 旧key仍然可以解密
+     * @param keyId key id, 0到255
+     * @param aes 这个key id对应的AES
+     */
+    public void rotate(int keyId, AES aes) {
+        update(keyId, aes, true);
+    }
+
+    /**
+     * 加入(或替换)一个只用于解密的key, 不改变当前key
+     * @param keyId key id, 0到255
+     * @param aes 这个key id对应的AES
+     */
+    public void add(int keyId, AES aes) {
+        update(keyId, aes, false);
+    }
+
+    /**
+     * 移除一个key, 之后这个key加密的数据无法再解密, 不能移除当前key
+     * @param keyId key id
+     */
+    public void remove(int keyId) {
+        checkKeyId(keyId);
+        Keys old;
+        Keys updated;
+        do {
+            old = keys.get();
+            if(old.currentId == keyId) {
+                throw new IllegalStateException("AES key id " + keyId + " is the current key, rotate to another key before removing it.");
+            }
+            AES[] byId = old.byId.clone();
+            byId[keyId] = null;
+            updated = new Keys(byId, old.currentId);
+        } while (!keys.compareAndSet(old, updated));
+    }
+
+    /**
+     * @return 当前key id, 还没有设置时返回-1
+     */
+    public int getCurrentKeyId() {
+        return keys.get().currentId;
+    }
+
+    /**
+     * @param keyId key id
+     * @return key id对应的AES, 不存在返回null
+     */
+    public AES get(int keyId) {
+        return keyId < 0 || keyId > MAX_KEY_ID ? null : keys.get().byId[keyId];
+    }
+
+    /**
+     * 用当前key加密
+     * @param originalBytes 原始文本bytes
+     * @return [key id][AES密文]
+     */
+    public byte[] encrypt(byte[] originalBytes) {
+        Keys snapshot = keys.get();
+        if(snapshot.currentId < 0) {
+            throw new IllegalStateException("AES key ring has no current key.");
+        }
+        AES aes = snapshot.byId[snapshot.currentId];
+        try {
+            byte[] encrypted = new byte[1 + aes.getEncryptedLength(originalBytes.length)];
+            encrypted[0] = (byte) snapshot.currentId;
+            aes.encrypt(originalBytes, 0, originalBytes.length, encrypted, 1);
+            return encrypted;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 按密文里的key id解密
+     * @param encryptedBytes [key id][AES密文]
+     * @return 原始文本bytes, key id不存在或密文不合法时返回null
+     */
+    public byte[] decrypt(byte[] encryptedBytes) {
+        if(encryptedBytes == null || encryptedBytes.length < 2) {
+            return null;
+        }
+        AES aes = keys.get().byId[encryptedBytes[0] & 0xFF];
+        if(aes == null) {
+            return null;
+        }
+        try {
+            byte[] original = new byte[encryptedBytes.length - 1];
+            int length = aes.decrypt(encryptedBytes, 1, encryptedBytes.length - 1, original, 0);
+            if(length < 0) {
+                return null;
+            }
+            return length == original.length ? original : Arrays.copyOf(original, length);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 用当前key将原始文本加密成Base64编码过的文本
+     * @param originalText 原始文本
+     * @return Base64编码过的文本
+     */
+    public String encryptStringToString(String originalText) {
+        return Base64.encodeBase64String(encrypt(originalText.getBytes(CHARSET)));
+    }
+
+    /**
+     * 用当前key将原始文本加密成Base64编码过的文本(URL安全)
+     * @param originalText 原始文本
+     * @return Base64编码过的文本，可以在GET中传输
+     */
+    public String encryptStringToStringURLSafe(String originalText) {
+        return Base64.encodeBase64URLSafeString(encrypt(originalText.getBytes(CHARSET)));
+    }
+
+    /**
+     * 将Base64后的文本按其中的key id解密成原始文本
+     * @param encryptedBase64 加密后的Base64
+     * @return 原始文本, key id不存在或密文不合法时返回null
+     */
+    public String decryptStringToString(String encryptedBase64) {
+        byte[] original = decrypt(Base64.decodeBase64(encryptedBase64));
+        return original == null ? null : new String(original, CHARSET);
+    }
+
+    private void update(int keyId, AES aes, boolean makeCurrent) {
+        checkKeyId(keyId);
+        if(aes == null) {
+            throw new IllegalArgumentException("AES of key id " + keyId + " must not be null.");
+        }
+        Keys old;
+        Keys updated;
+        do {
+            old = keys.get();
+            AES[] byId = old.byId.clone();
+            byId[keyId] = aes;
+            updated = new Keys(byId, makeCurrent ? keyId : old.currentId);
+        } while (!keys.compareAndSet(old, updated));
+    }
+
+    private static void checkKeyId(int keyId) {
+        if(keyId < 0 || keyId > MAX_KEY_ID) {
+            throw new IllegalArgumentException("AES key id must be 0 to " + MAX_KEY_ID + " but now " + keyId + ".");
+        }
+    }
+}
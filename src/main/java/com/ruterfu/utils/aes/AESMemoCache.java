@@ -0,0 +1,114 @@
+package com.ruterfu.utils.aes;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AES字符串加解密的结果缓存, 由 AES.enableMemoCache 创建
+ * 只缓存长度不超过maxTextLength的输入, 每类结果最多maxSize条, 超过后按放入顺序淘汰最早的
+ * 加密结果只在CBC模式下缓存(其他模式每次的nonce都不同), 解密结果所有模式都缓存
+ */
+public class AESMemoCache {
+    private final int maxTextLength;
+    private final Memo encrypted;
+    private final Memo encryptedURLSafe;
+    private final Memo decrypted;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    AESMemoCache(int maxSize, int maxTextLength) {
+        if(maxSize <= 0 || maxTextLength <= 0) {
+            throw new IllegalArgumentException("AES memo cache maxSize and maxTextLength must be positive but now " + maxSize + ", " + maxTextLength + ".");
+        }
+        this.maxTextLength = maxTextLength;
+        this.encrypted = new Memo(maxSize);
+        this.encryptedURLSafe = new Memo(maxSize);
+        this.decrypted = new Memo(maxSize);
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return 当前缓存的总条数
+     */
+    public int size() {
+        return encrypted.size.get() + encryptedURLSafe.size.get() + decrypted.size.get();
+    }
+
+    public void clear() {
+        encrypted.clear();
+        encryptedURLSafe.clear();
+        decrypted.clear();
+    }
+
+    boolean accepts(String text) {
+        return text != null && text.length() <= maxTextLength;
+    }
+
+    String getEncrypted(String originalText, boolean urlSafe) {
+        return count((urlSafe ? encryptedURLSafe : encrypted).map.get(originalText));
+    }
+
+    void putEncrypted(String originalText, boolean urlSafe, String encryptedBase64) {
+        (urlSafe ? encryptedURLSafe : encrypted).put(originalText, encryptedBase64);
+    }
+
+    String getDecrypted(String encryptedBase64) {
+        return count(decrypted.map.get(encryptedBase64));
+    }
+
+    void putDecrypted(String encryptedBase64, String originalText) {
+        decrypted.put(encryptedBase64, originalText);
+    }
+
+    private String count(String value) {
+        if(value == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return value;
+    }
+
+    /**
+     * 并发的有界map, 按放入顺序淘汰
+     */
+    private static class Memo {
+        private final ConcurrentHashMap<String, String> map = new ConcurrentHashMap<>();
+        private final ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final int maxSize;
+
+        Memo(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        void put(String key, String value) {
+            if(value == null || map.putIfAbsent(key, value) != null) {
+                return;
+            }
+            order.offer(key);
+            // 每次放入超出上限时淘汰一条最早的, 大小最多短暂超出并发写入的线程数
+            if(size.incrementAndGet() > maxSize) {
+                String eldest = order.poll();
+                if(eldest != null && map.remove(eldest) != null) {
+                    size.decrementAndGet();
+                }
+            }
+        }
+
+        void clear() {
+            map.clear();
+            order.clear();
+            size.set(0);
+        }
+    }
+}
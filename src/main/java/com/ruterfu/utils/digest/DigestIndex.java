@@ -0,0 +1,237 @@
+package com.ruterfu.utils.digest;
+
+import com.ruterfu.thirdpkg.apache.codec.Hex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * 持久化的文件摘要索引, 记录 (路径, 大小, 修改时间) -> 摘要, 大小和修改时间都没变时直接返回记录的摘要, 不再读文件
+ * 注意: 修改时间精度内写入且大小不变的修改无法发现, 需要绝对可靠的校验时请直接用 Digests.digestFile
+ * 索引文件格式: [魔数 RTDI 4位][版本 1位][算法 UTF][条数 4位] 之后每条 [路径 UTF][大小 8位][修改时间 8位][摘要长度 1位][摘要]
+ * 保存时先写临时文件再替换, 不会留下写了一半的索引
+ */
+public class DigestIndex implements Closeable {
+    private static final int MAGIC = 0x52544449;
+    private static final byte VERSION = 1;
+
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final byte[] digest;
+
+        Entry(long size, long lastModified, byte[] digest) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+
+    private final Path indexFile;
+    private final String algorithm;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    /**
+     * 打开索引文件, 不存在, 已损坏或者算法不同时从空索引开始
+     * @param indexFile 索引文件
+     * @param algorithm 摘要算法
+     * @throws IOException 读取失败
+     */
+    public DigestIndex(Path indexFile, String algorithm) throws IOException {
+        this.indexFile = indexFile;
+        this.algorithm = algorithm;
+        load();
+    }
+
+    /**
+     * 取文件摘要, 大小和修改时间没变时直接返回记录的值
+     * @param file 文件
+     * @return 摘要
+     * @throws IOException 读取失败
+     * @throws NoSuchAlgorithmException 算法既没有注册也不被JCA支持
+     */
+    public byte[] digest(Path file) throws IOException, NoSuchAlgorithmException {
+        String key = key(file);
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        Entry entry = entries.get(key);
+        if(isFresh(entry, attributes)) {
+            return entry.digest.clone();
+        }
+        return rehash(file, key, attributes).clone();
+    }
+
+    public String digestHex(Path file) throws IOException, NoSuchAlgorithmException {
+        return Hex.encodeHexString(digest(file));
+    }
+
+    /**
+     * 批量取摘要, 先只读取所有文件的元数据, 再并行重新计算过期的那部分
+     * @param files 文件
+     * @return 文件 -> 摘要(十六进制), 按传入的顺序
+     * @throws IOException 读取失败
+     * @throws NoSuchAlgorithmException 算法既没有注册也不被JCA支持
+     */
+    public Map<Path, String> digestAll(Collection<Path> files) throws IOException, NoSuchAlgorithmException {
+        Digests.get(algorithm);
+        Map<Path, String> results = new LinkedHashMap<>();
+        List<Path> stale = new ArrayList<>();
+        List<BasicFileAttributes> staleAttributes = new ArrayList<>();
+        for (Path file : files) {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            Entry entry = entries.get(key(file));
+            if(isFresh(entry, attributes)) {
+                results.put(file, Hex.encodeHexString(entry.digest));
+            } else {
+                results.put(file, null);
+                stale.add(file);
+                staleAttributes.add(attributes);
+            }
+        }
+        String[] rehashed = new String[stale.size()];
+        try {
+            IntStream.range(0, stale.size()).parallel().forEach(i -> {
+                try {
+                    Path file = stale.get(i);
+                    rehashed[i] = Hex.encodeHexString(rehash(file, key(file), staleAttributes.get(i)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (int i = 0; i < rehashed.length; i++) {
+            results.put(stale.get(i), rehashed[i]);
+        }
+        return results;
+    }
+
+    /**
+     * 移除已经不存在的文件的记录
+     * @return 移除的条数
+     */
+    public int prune() {
+        int removed = 0;
+        for (String key : entries.keySet()) {
+            if(!Files.exists(Paths.get(key)) && entries.remove(key) != null) {
+                removed++;
+            }
+        }
+        if(removed > 0) {
+            dirty = true;
+        }
+        return removed;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 有变化时写回索引文件
+     * @throws IOException 写入失败
+     */
+    public synchronized void save() throws IOException {
+        if(!dirty) {
+            return;
+        }
+        dirty = false;
+        Path parent = indexFile.toAbsolutePath().getParent();
+        if(parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeUTF(algorithm);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> item : snapshot) {
+                    Entry entry = item.getValue();
+                    out.writeUTF(item.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.lastModified);
+                    out.writeByte(entry.digest.length);
+                    out.write(entry.digest);
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        save();
+    }
+
+    private void load() throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)));
+        } catch (NoSuchFileException e) {
+            // 还没有索引, 从空索引开始
+            return;
+        }
+        try (DataInputStream input = in) {
+            if(input.readInt() != MAGIC || input.readByte() != VERSION || !algorithm.equalsIgnoreCase(input.readUTF())) {
+                return;
+            }
+            int count = input.readInt();
+            Map<String, Entry> loaded = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = input.readUTF();
+                long size = input.readLong();
+                long lastModified = input.readLong();
+                byte[] digest = new byte[input.readUnsignedByte()];
+                input.readFully(digest);
+                loaded.put(key, new Entry(size, lastModified, digest));
+            }
+            entries.putAll(loaded);
+        } catch (IOException e) {
+            // 写了一半或者内容已损坏(比如不合法的UTF), 从空索引开始
+        }
+    }
+
+    private byte[] rehash(Path file, String key, BasicFileAttributes attributes) throws IOException, NoSuchAlgorithmException {
+        byte[] digest = Digests.digestFile(file, algorithm);
+        entries.put(key, new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), digest));
+        dirty = true;
+        return digest;
+    }
+
+    private static boolean isFresh(Entry entry, BasicFileAttributes attributes) {
+        return entry != null && entry.size == attributes.size() && entry.lastModified == attributes.lastModifiedTime().toMillis();
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+}
@@ -0,0 +1,383 @@
+package com.ruterfu.utils.digest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * MessageDigest缓存, 每个线程每种算法只调用一次MessageDigest.getInstance, 之后reset复用
+ * 可以注册自定义算法(比如没有在JCA Provider里的实现), 注册后优先于MessageDigest.getInstance
+ */
+public class Digests {
+    private static final Map<String, Supplier<MessageDigest>> FACTORIES = new ConcurrentHashMap<>();
+    /**
+     * 注册或移除自定义算法时加1, 线程里缓存的实例发现版本变了就全部丢弃
+     */
+    private static final AtomicInteger VERSION = new AtomicInteger();
+    private static final ThreadLocal<Cache> CACHE = ThreadLocal.withInitial(Cache::new);
+    /**
+     * 不小于这个大小的文件按窗口映射到内存, 更小的文件映射的开销比读还大
+     */
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    /**
+     * 每次映射的窗口大小, 太大会占用过多的虚拟地址空间
+     */
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(128 * 1024));
+    private static final ThreadLocal<PartsEncoder> PARTS_ENCODER = ThreadLocal.withInitial(PartsEncoder::new);
+
+    private static class Cache {
+        private final Map<String, MessageDigest> byAlgorithm = new HashMap<>();
+        private int version = VERSION.get();
+    }
+
+    private Digests() {
+    }
+
+    /**
+     * 注册自定义算法, 相同名称(不区分大小写)的会被替换
+     * @param algorithm 算法名称
+     * @param factory 创建新实例, 每个线程调用一次
+     */
+    public static void register(String algorithm, Supplier<MessageDigest> factory) {
+        if(algorithm == null || factory == null) {
+            throw new IllegalArgumentException("Digest algorithm and factory must not be null.");
+        }
+        FACTORIES.put(key(algorithm), factory);
+        VERSION.incrementAndGet();
+    }
+
+    /**
+     * 移除自定义算法, 之后这个名称重新走MessageDigest.getInstance
+     * @param algorithm 算法名称
+     */
+    public static void unregister(String algorithm) {
+        if(FACTORIES.remove(key(algorithm)) != null) {
+            VERSION.incrementAndGet();
+        }
+    }
+
+    /**
+     * 取当前线程缓存的实例, 已经reset过, 只能在同一个线程内用完, 不要保存或者传给其他线程
+     * 同一个线程里嵌套使用同一种算法时, 内层拿到的是同一个实例, 这种情况请自己getInstance
+     * @param algorithm 算法名称
+     * @return 可以直接update的MessageDigest
+     * @throws NoSuchAlgorithmException 既没有注册也不被JCA支持
+     */
+    public static MessageDigest get(String algorithm) throws NoSuchAlgorithmException {
+        Cache cache = CACHE.get();
+        int version = VERSION.get();
+        if(cache.version != version) {
+            cache.byAlgorithm.clear();
+            cache.version = version;
+        }
+        String key = key(algorithm);
+        MessageDigest digest = cache.byAlgorithm.get(key);
+        if(digest == null) {
+            digest = newInstance(algorithm, key);
+            cache.byAlgorithm.put(key, digest);
+        } else {
+            digest.reset();
+        }
+        return digest;
+    }
+
+    /**
+     * @param source 源数据
+     * @param algorithm 算法名称
+     * @return 摘要
+     * @throws NoSuchAlgorithmException 既没有注册也不被JCA支持
+     */
+    public static byte[] digest(byte[] source, String algorithm) throws NoSuchAlgorithmException {
+        return get(algorithm).digest(source);
+    }
+
+    /**
+     * 计算多个部分拼接后的摘要, 结果和把每部分的toString()拼成一个字符串再按UTF-8计算完全相同, 但不生成拼接后的字符串和byte[]
+     * CharSequence逐字符编码成UTF-8, Integer, Long, Short, Byte直接写数字, 都不调用toString(), 其他类型调用toString(), null视为空字符串
+     * 相邻部分之间被拆开的代理对会和拼接后一样合成一个字符
+     * @param algorithm 算法名称
+     * @param parts 各部分
+     * @return 摘要
+     * @throws NoSuchAlgorithmException 既没有注册也不被JCA支持
+     */
+    public static byte[] digestParts(String algorithm, Object... parts) throws NoSuchAlgorithmException {
+        PartsEncoder encoder = PARTS_ENCODER.get();
+        if(encoder.digest != null) {
+            // 某个部分的toString()里又调用了这个方法, 内层用新的encoder和实例, 不能破坏外层的状态
+            return new PartsEncoder().digest(newInstance(algorithm, key(algorithm)), parts);
+        }
+        return encoder.digest(encoder.instance(algorithm), parts);
+    }
+
+    /**
+     * 通过FileChannel计算文件摘要, 大文件按窗口映射后直接update, 小文件读到线程复用的direct buffer
+     * @param path 文件
+     * @param algorithm 算法名称
+     * @return 摘要
+     * @throws IOException 读取失败
+     * @throws NoSuchAlgorithmException 既没有注册也不被JCA支持
+     */
+    public static byte[] digestFile(Path path, String algorithm) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = get(algorithm);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            update(channel, 0, channel.size(), digest);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * 只读一遍数据同时计算多种摘要
+     * @param source 源数据
+     * @param algorithms 算法名称, 大小写不同的同一个算法只计算一次
+     * @return 算法名称(按传入的顺序和写法) -> 摘要
+     * @throws NoSuchAlgorithmException 有算法既没有注册也不被JCA支持
+     */
+    public static Map<String, byte[]> digestAll(byte[] source, String... algorithms) throws NoSuchAlgorithmException {
+        Map<String, MessageDigest> digests = getAll(algorithms);
+        for (MessageDigest digest : new LinkedHashSet<>(digests.values())) {
+            digest.update(source);
+        }
+        return finish(digests);
+    }
+
+    /**
+     * 只读一遍文件同时计算多种摘要, 每多一种算法只增加计算, 不增加读盘
+     * @param path 文件
+     * @param algorithms 算法名称, 大小写不同的同一个算法只计算一次
+     * @return 算法名称(按传入的顺序和写法) -> 摘要
+     * @throws IOException 读取失败
+     * @throws NoSuchAlgorithmException 有算法既没有注册也不被JCA支持
+     */
+    public static Map<String, byte[]> digestFileAll(Path path, String... algorithms) throws IOException, NoSuchAlgorithmException {
+        Map<String, MessageDigest> digests = getAll(algorithms);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            update(channel, 0, channel.size(), new LinkedHashSet<>(digests.values()).toArray(new MessageDigest[0]));
+        }
+        return finish(digests);
+    }
+
+    /**
+     * 把文件的[position, position + length)送进每个digest, 每块数据只读一次
+     */
+    static void update(FileChannel channel, long position, long length, MessageDigest... digests) throws IOException {
+        long end = position + length;
+        if(length >= MAP_THRESHOLD) {
+            for (long offset = position; offset < end; offset += MAP_WINDOW_SIZE) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(MAP_WINDOW_SIZE, end - offset));
+                updateAll(digests, window);
+            }
+            return;
+        }
+        ByteBuffer buffer = READ_BUFFER.get();
+        long offset = position;
+        while (offset < end) {
+            buffer.clear();
+            if(end - offset < buffer.capacity()) {
+                buffer.limit((int) (end - offset));
+            }
+            int read = channel.read(buffer, offset);
+            if(read < 0) {
+                break;
+            }
+            offset += read;
+            buffer.flip();
+            updateAll(digests, buffer);
+        }
+    }
+
+    private static void updateAll(MessageDigest[] digests, ByteBuffer buffer) {
+        if(digests.length == 1) {
+            digests[0].update(buffer);
+            return;
+        }
+        for (MessageDigest digest : digests) {
+            buffer.rewind();
+            digest.update(buffer);
+        }
+    }
+
+    /**
+     * 同一个线程里同一种算法只有一个缓存实例, 大小写不同的名称会拿到同一个, 调用方需要去重
+     */
+    private static Map<String, MessageDigest> getAll(String... algorithms) throws NoSuchAlgorithmException {
+        if(algorithms == null || algorithms.length == 0) {
+            throw new IllegalArgumentException("At least one digest algorithm is required.");
+        }
+        Map<String, MessageDigest> digests = new LinkedHashMap<>();
+        for (String algorithm : algorithms) {
+            digests.put(algorithm, get(algorithm));
+        }
+        return digests;
+    }
+
+    private static Map<String, byte[]> finish(Map<String, MessageDigest> digests) {
+        Map<MessageDigest, byte[]> results = new IdentityHashMap<>();
+        Map<String, byte[]> byAlgorithm = new LinkedHashMap<>();
+        for (Map.Entry<String, MessageDigest> entry : digests.entrySet()) {
+            byAlgorithm.put(entry.getKey(), results.computeIfAbsent(entry.getValue(), MessageDigest::digest));
+        }
+        return byAlgorithm;
+    }
+
+    private static MessageDigest newInstance(String algorithm, String key) throws NoSuchAlgorithmException {
+        Supplier<MessageDigest> factory = FACTORIES.get(key);
+        return factory != null ? factory.get() : MessageDigest.getInstance(algorithm);
+    }
+
+    private static String key(String algorithm) {
+        return algorithm.toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * 把各部分编码成UTF-8写进一个小缓冲区, 满了就update, 每个线程复用一个
+     */
+    private static class PartsEncoder {
+        private final byte[] buffer = new byte[1024];
+        /**
+         * 和get()的缓存分开, 部分的toString()里调用其他摘要方法时不会reset正在使用的实例
+         */
+        private final Map<String, MessageDigest> instances = new HashMap<>();
+        private int version = VERSION.get();
+        private int pos;
+        private char pendingHigh;
+        private MessageDigest digest;
+
+        MessageDigest instance(String algorithm) throws NoSuchAlgorithmException {
+            if(version != VERSION.get()) {
+                instances.clear();
+                version = VERSION.get();
+            }
+            String key = key(algorithm);
+            MessageDigest digest = instances.get(key);
+            if(digest == null) {
+                digest = newInstance(algorithm, key);
+                instances.put(key, digest);
+            } else {
+                digest.reset();
+            }
+            return digest;
+        }
+
+        byte[] digest(MessageDigest digest, Object... parts) {
+            this.digest = digest;
+            pos = 0;
+            pendingHigh = 0;
+            try {
+                for (Object part : parts) {
+                    if(part == null) {
+                        continue;
+                    }
+                    if(part instanceof CharSequence) {
+                        append((CharSequence) part);
+                    } else if(part instanceof Integer || part instanceof Long || part instanceof Short || part instanceof Byte) {
+                        append(((Number) part).longValue());
+                    } else {
+                        append(String.valueOf(part.toString()));
+                    }
+                }
+                flushPendingHigh();
+                flush();
+                return digest.digest();
+            } finally {
+                this.digest = null;
+            }
+        }
+
+        private void append(CharSequence chars) {
+            byte[] buf = buffer;
+            for (int i = 0, len = chars.length(); i < len; i++) {
+                char c = chars.charAt(i);
+                if(pos > buf.length - 4) {
+                    flush();
+                }
+                if(pendingHigh != 0) {
+                    if(Character.isLowSurrogate(c)) {
+                        int codePoint = Character.toCodePoint(pendingHigh, c);
+                        pendingHigh = 0;
+                        buf[pos++] = (byte) (0xF0 | codePoint >> 18);
+                        buf[pos++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                        buf[pos++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                        buf[pos++] = (byte) (0x80 | codePoint & 0x3F);
+                        continue;
+                    }
+                    flushPendingHigh();
+                }
+                if(c < 0x80) {
+                    buf[pos++] = (byte) c;
+                } else if(c < 0x800) {
+                    buf[pos++] = (byte) (0xC0 | c >> 6);
+                    buf[pos++] = (byte) (0x80 | c & 0x3F);
+                } else if(Character.isHighSurrogate(c)) {
+                    // 可能和下一个字符(包括下一部分的第一个字符)组成代理对
+                    pendingHigh = c;
+                } else if(Character.isLowSurrogate(c)) {
+                    buf[pos++] = '?';
+                } else {
+                    buf[pos++] = (byte) (0xE0 | c >> 12);
+                    buf[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    buf[pos++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+        }
+
+        /**
+         * 按十进制写入, 在负数范围内计算, Long.MIN_VALUE也不会溢出
+         */
+        private void append(long value) {
+            flushPendingHigh();
+            if(pos > buffer.length - 20) {
+                flush();
+            }
+            boolean negative = value < 0;
+            long remaining = negative ? value : -value;
+            int start = pos;
+            do {
+                buffer[pos++] = (byte) ('0' - remaining % 10);
+                remaining /= 10;
+            } while (remaining != 0);
+            if(negative) {
+                buffer[pos++] = '-';
+            }
+            for (int i = start, j = pos - 1; i < j; i++, j--) {
+                byte b = buffer[i];
+                buffer[i] = buffer[j];
+                buffer[j] = b;
+            }
+        }
+
+        /**
+         * 没有配对的高代理和String.getBytes一样编码成'?'
+         */
+        private void flushPendingHigh() {
+            if(pendingHigh != 0) {
+                pendingHigh = 0;
+                if(pos == buffer.length) {
+                    flush();
+                }
+                buffer[pos++] = '?';
+            }
+        }
+
+        private void flush() {
+            if(pos > 0) {
+                digest.update(buffer, 0, pos);
+                pos = 0;
+            }
+        }
+    }
+}
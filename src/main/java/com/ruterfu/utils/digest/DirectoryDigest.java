@@ -0,0 +1,231 @@
+package com.ruterfu.utils.digest;
+
+import com.ruterfu.thirdpkg.apache.codec.Hex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 目录的Merkle树摘要, 文件在ForkJoinPool上并行计算
+ * 文件节点的摘要就是文件内容的摘要, 目录节点的摘要是按名称排序后依次对每个子节点的 [类型 1位][名称UTF-8长度 4位][名称][子节点摘要] 计算的摘要
+ * 所以相同内容的目录树在任何机器上得到相同的根摘要, 比较两棵树时只需要进入摘要不同的子目录
+ */
+public class DirectoryDigest {
+    private static final byte TYPE_FILE = 0;
+    private static final byte TYPE_DIRECTORY = 1;
+
+    private final String name;
+    private final String path;
+    private final boolean directory;
+    private final byte[] hash;
+    private final List<DirectoryDigest> children;
+
+    private DirectoryDigest(String name, String path, boolean directory, byte[] hash, List<DirectoryDigest> children) {
+        this.name = name;
+        this.path = path;
+        this.directory = directory;
+        this.hash = hash;
+        this.children = children;
+    }
+
+    /**
+     * 在ForkJoinPool.commonPool()上计算目录摘要
+     * @param root 根目录
+     * @param algorithm 摘要算法
+     * @return 根节点
+     */
+    public static DirectoryDigest of(Path root, String algorithm) throws IOException, NoSuchAlgorithmException {
+        return of(root, algorithm, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 计算目录摘要, 符号链接的目录不会进入, 避免循环
+     * @param root 根目录
+     * @param algorithm 摘要算法
+     * @param pool 计算用的线程池
+     * @return 根节点, 路径是空字符串
+     * @throws IOException 读取失败
+     * @throws NoSuchAlgorithmException 算法既没有注册也不被JCA支持
+     */
+    public static DirectoryDigest of(Path root, String algorithm, ForkJoinPool pool) throws IOException, NoSuchAlgorithmException {
+        if(!Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException(root + " is not a directory.");
+        }
+        // 先确认算法可用, 不要在任务里才失败
+        Digests.get(algorithm);
+        try {
+            return pool.invoke(new Task(root, "", "", true, algorithm));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 比较两棵树, 只进入摘要不同的子目录
+     * @param left 一棵树
+     * @param right 另一棵树
+     * @return 新增, 删除或者内容不同的文件和目录路径, 整个目录只在一边存在时只返回这个目录
+     */
+    public static List<String> diff(DirectoryDigest left, DirectoryDigest right) {
+        List<String> differences = new ArrayList<>();
+        diff(left, right, differences);
+        return differences;
+    }
+
+    private static void diff(DirectoryDigest left, DirectoryDigest right, List<String> differences) {
+        if(Arrays.equals(left.hash, right.hash) && left.directory == right.directory) {
+            return;
+        }
+        if(!left.directory || !right.directory) {
+            differences.add(left.path);
+            return;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < left.children.size() || j < right.children.size()) {
+            DirectoryDigest l = i < left.children.size() ? left.children.get(i) : null;
+            DirectoryDigest r = j < right.children.size() ? right.children.get(j) : null;
+            int compare = l == null ? 1 : r == null ? -1 : l.name.compareTo(r.name);
+            if(compare == 0) {
+                diff(l, r, differences);
+                i++;
+                j++;
+            } else if(compare < 0) {
+                differences.add(l.path);
+                i++;
+            } else {
+                differences.add(r.path);
+                j++;
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return 相对根目录的路径, 用/分隔, 根节点是空字符串
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public byte[] getHash() {
+        return hash.clone();
+    }
+
+    public String getHashHex() {
+        return Hex.encodeHexString(hash);
+    }
+
+    /**
+     * @return 按名称排序的子节点, 文件节点是空列表
+     */
+    public List<DirectoryDigest> getChildren() {
+        return children;
+    }
+
+    /**
+     * @return 所有文件的 相对路径 -> 摘要, 按路径排序
+     */
+    public Map<String, String> getLeafHashes() {
+        Map<String, String> leaves = new LinkedHashMap<>();
+        collectLeaves(leaves);
+        return leaves;
+    }
+
+    private void collectLeaves(Map<String, String> leaves) {
+        if(!directory) {
+            leaves.put(path, getHashHex());
+            return;
+        }
+        for (DirectoryDigest child : children) {
+            child.collectLeaves(leaves);
+        }
+    }
+
+    private static class Task extends RecursiveTask<DirectoryDigest> {
+        private static final long serialVersionUID = 1L;
+        private final Path file;
+        private final String name;
+        private final String path;
+        private final boolean directory;
+        private final String algorithm;
+
+        Task(Path file, String name, String path, boolean directory, String algorithm) {
+            this.file = file;
+            this.name = name;
+            this.path = path;
+            this.directory = directory;
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        protected DirectoryDigest compute() {
+            try {
+                if(!directory) {
+                    return new DirectoryDigest(name, path, false, Digests.digestFile(file, algorithm), Collections.emptyList());
+                }
+                List<Task> tasks = new ArrayList<>();
+                try (Stream<Path> entries = Files.list(file)) {
+                    for (Path entry : entries.sorted(Comparator.comparing(p -> p.getFileName().toString())).collect(Collectors.toList())) {
+                        String childName = entry.getFileName().toString();
+                        String childPath = path.isEmpty() ? childName : path + "/" + childName;
+                        if(Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                            tasks.add(new Task(entry, childName, childPath, true, algorithm));
+                        } else if(Files.isRegularFile(entry)) {
+                            tasks.add(new Task(entry, childName, childPath, false, algorithm));
+                        }
+                    }
+                }
+                invokeAll(tasks);
+                List<DirectoryDigest> children = new ArrayList<>(tasks.size());
+                for (Task task : tasks) {
+                    children.add(task.join());
+                }
+                return new DirectoryDigest(name, path, true, combine(children), Collections.unmodifiableList(children));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private byte[] combine(List<DirectoryDigest> children) throws NoSuchAlgorithmException {
+            MessageDigest digest = Digests.get(algorithm);
+            for (DirectoryDigest child : children) {
+                byte[] childName = child.name.getBytes(StandardCharsets.UTF_8);
+                digest.update(child.directory ? TYPE_DIRECTORY : TYPE_FILE);
+                digest.update((byte) (childName.length >>> 24));
+                digest.update((byte) (childName.length >>> 16));
+                digest.update((byte) (childName.length >>> 8));
+                digest.update((byte) childName.length);
+                digest.update(childName);
+                digest.update(child.hash);
+            }
+            return digest.digest();
+        }
+    }
+}
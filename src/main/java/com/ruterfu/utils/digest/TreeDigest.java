@@ -0,0 +1,176 @@
+package com.ruterfu.utils.digest;
+
+import com.ruterfu.thirdpkg.apache.codec.Hex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 大文件的分块树摘要, 各块在ForkJoinPool上并行计算, 速度随核数增加, 但结果和普通的文件摘要不同
+ * 格式(v1), 两端按这个格式计算就可以互相校验:
+ * 1. 文件按chunkSize切块, 第i块是 [i * chunkSize, min((i + 1) * chunkSize, size)), 空文件没有块
+ * 2. 每块的摘要 chunk[i] = H(第i块内容)
+ * 3. 根摘要 root = H("rt-tree-v1" 的ASCII || chunkSize 8位大端 || size 8位大端 || chunk[0] || chunk[1] || ...)
+ * H是同一个算法, chunkSize和size都参与了根摘要, 所以不同块大小的结果不会相同
+ */
+public class TreeDigest {
+    /**
+     * 默认块大小 4MB
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final byte[] FORMAT = "rt-tree-v1".getBytes(StandardCharsets.US_ASCII);
+
+    private final String algorithm;
+    private final int chunkSize;
+    private final long size;
+    private final List<byte[]> chunkHashes;
+    private final byte[] root;
+
+    private TreeDigest(String algorithm, int chunkSize, long size, List<byte[]> chunkHashes, byte[] root) {
+        this.algorithm = algorithm;
+        this.chunkSize = chunkSize;
+        this.size = size;
+        this.chunkHashes = chunkHashes;
+        this.root = root;
+    }
+
+    public static TreeDigest of(Path file, String algorithm) throws IOException, NoSuchAlgorithmException {
+        return of(file, algorithm, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    public static TreeDigest of(Path file, String algorithm, int chunkSize) throws IOException, NoSuchAlgorithmException {
+        return of(file, algorithm, chunkSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 并行计算文件的分块树摘要
+     * @param file 文件
+     * @param algorithm 摘要算法
+     * @param chunkSize 块大小, 两端必须相同
+     * @param pool 计算用的线程池
+     * @return 根摘要和每块的摘要
+     * @throws IOException 读取失败
+     * @throws NoSuchAlgorithmException 算法既没有注册也不被JCA支持
+     */
+    public static TreeDigest of(Path file, String algorithm, int chunkSize, ForkJoinPool pool) throws IOException, NoSuchAlgorithmException {
+        if(chunkSize <= 0) {
+            throw new IllegalArgumentException("Tree digest chunk size must be positive but now " + chunkSize + ".");
+        }
+        Digests.get(algorithm);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunks = (size + chunkSize - 1) / chunkSize;
+            if(chunks > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many chunks (" + chunks + "), use a larger chunk size.");
+            }
+            byte[][] hashes = new byte[(int) chunks][];
+            if(chunks > 0) {
+                try {
+                    pool.invoke(new ChunkTask(channel, algorithm, chunkSize, size, hashes, 0, hashes.length));
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+            List<byte[]> chunkHashes = Collections.unmodifiableList(Arrays.asList(hashes));
+            return new TreeDigest(algorithm, chunkSize, size, chunkHashes, root(algorithm, chunkSize, size, chunkHashes));
+        }
+    }
+
+    /**
+     * 按格式从每块的摘要计算根摘要, 接收端可以边接收边算块摘要, 最后用这个方法得到根摘要
+     * @param algorithm 摘要算法
+     * @param chunkSize 块大小
+     * @param size 文件大小
+     * @param chunkHashes 按顺序的每块摘要
+     * @return 根摘要
+     * @throws NoSuchAlgorithmException 算法既没有注册也不被JCA支持
+     */
+    public static byte[] root(String algorithm, int chunkSize, long size, List<byte[]> chunkHashes) throws NoSuchAlgorithmException {
+        MessageDigest digest = Digests.get(algorithm);
+        digest.update(FORMAT);
+        digest.update(ByteBuffer.allocate(16).putLong(chunkSize).putLong(size).array());
+        for (byte[] chunkHash : chunkHashes) {
+            digest.update(chunkHash);
+        }
+        return digest.digest();
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return 按顺序的每块摘要, 根摘要不一致时可以逐块比较找出损坏的块
+     */
+    public List<byte[]> getChunkHashes() {
+        return chunkHashes;
+    }
+
+    public byte[] getRoot() {
+        return root.clone();
+    }
+
+    public String getRootHex() {
+        return Hex.encodeHexString(root);
+    }
+
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final String algorithm;
+        private final int chunkSize;
+        private final long size;
+        private final byte[][] hashes;
+        private final int from;
+        private final int to;
+
+        ChunkTask(FileChannel channel, String algorithm, int chunkSize, long size, byte[][] hashes, int from, int to) {
+            this.channel = channel;
+            this.algorithm = algorithm;
+            this.chunkSize = chunkSize;
+            this.size = size;
+            this.hashes = hashes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(channel, algorithm, chunkSize, size, hashes, from, middle), new ChunkTask(channel, algorithm, chunkSize, size, hashes, middle, to));
+                return;
+            }
+            try {
+                MessageDigest digest = Digests.get(algorithm);
+                long position = (long) from * chunkSize;
+                Digests.update(channel, position, Math.min(chunkSize, size - position), digest);
+                hashes[from] = digest.digest();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -3,9 +3,24 @@ package com.ruterfu;
 import com.ruterfu.thirdpkg.apache.codec.Base64;
 import com.ruterfu.utils.RtUtil;
 import com.ruterfu.utils.aes.AES;
+import com.ruterfu.utils.aes.AESKeyRing;
+import com.ruterfu.utils.aes.AESMemoCache;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class AesTest {
     @Test
@@ -34,4 +49,306 @@ public class AesTest {
         }
         assert totalCount == totalSucceed;
     }
+
+    @Test
+    public void testSharedInstanceAcrossThreads() throws Exception {
+        String key = RtUtil.randomAES256Key();
+        AES aes = new AES(key);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(pool.submit(() -> {
+                    for (int j = 0; j < 500; j++) {
+                        String text = RtUtil.random(RtUtil.randomNumBoundary(0, 300), true);
+                        String encrypted = aes.encryptStringToString(text);
+                        if(!text.equals(aes.decryptStringToString(encrypted))) {
+                            return false;
+                        }
+                        if(!encrypted.equals(Base64.encodeBase64String(RtUtil.encryptAESString(text, key)))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assert future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testStreamMatchesByteArray() throws Exception {
+        AES aes = new AES(RtUtil.randomAES256Key());
+        Random random = new Random();
+        int[] sizes = {0, 1, 15, 16, 17, 8191, 8192, 8193, 100000};
+        for (int size : sizes) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            long written = aes.encrypt(new ByteArrayInputStream(data), encrypted);
+            assert written == encrypted.size();
+            assert Arrays.equals(aes.encrypt(data), encrypted.toByteArray());
+
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            aes.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), decrypted);
+            assert Arrays.equals(data, decrypted.toByteArray());
+        }
+
+        // 空的密文和 decrypt(byte[]) 一样不合法
+        assert aes.decrypt(new byte[0]) == null;
+        try {
+            aes.decrypt(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+            assert false;
+        } catch (IOException e) {
+            // 期望: 空输入不是合法的CBC密文
+        }
+    }
+
+    @Test
+    public void testCallerBuffers() {
+        AES aes = new AES(RtUtil.randomAES256Key());
+        Random random = new Random();
+        for (int size = 0; size < 70; size++) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            byte[] expected = aes.encrypt(data);
+
+            byte[] out = new byte[aes.getEncryptedLength(size) + 3];
+            int written = aes.encrypt(data, 0, size, out, 3);
+            assert written == expected.length;
+            assert Arrays.equals(expected, Arrays.copyOfRange(out, 3, out.length));
+            byte[] plain = new byte[expected.length];
+            int read = aes.decrypt(out, 3, expected.length, plain, 0);
+            assert read == size;
+            assert Arrays.equals(data, Arrays.copyOf(plain, size));
+
+            // 同一个数组原地加密, 输出位置在输入前面或后面
+            for (int shift : new int[]{0, 1, 5, 16, 21}) {
+                byte[] inPlace = new byte[shift + expected.length];
+                System.arraycopy(data, 0, inPlace, 0, size);
+                written = aes.encrypt(inPlace, 0, size, inPlace, shift);
+                assert written == expected.length;
+                assert Arrays.equals(expected, Arrays.copyOfRange(inPlace, shift, inPlace.length));
+                inPlace = new byte[shift + expected.length];
+                System.arraycopy(data, 0, inPlace, shift, size);
+                written = aes.encrypt(inPlace, shift, size, inPlace, 0);
+                assert written == expected.length;
+                assert Arrays.equals(expected, Arrays.copyOf(inPlace, expected.length));
+            }
+
+            ByteBuffer src = ByteBuffer.allocateDirect(size);
+            src.put(data).flip();
+            ByteBuffer dst = ByteBuffer.allocateDirect(aes.getEncryptedLength(size));
+            written = aes.encrypt(src, dst);
+            assert written == expected.length;
+            dst.flip();
+            byte[] encrypted = new byte[dst.remaining()];
+            dst.duplicate().get(encrypted);
+            assert Arrays.equals(expected, encrypted);
+            ByteBuffer decrypted = ByteBuffer.allocateDirect(expected.length);
+            read = aes.decrypt(dst, decrypted);
+            assert read == size;
+            decrypted.flip();
+            byte[] result = new byte[decrypted.remaining()];
+            decrypted.get(result);
+            assert Arrays.equals(data, result);
+        }
+    }
+
+    @Test
+    public void testCtrMatchesSerialStream() throws Exception {
+        AES aes = new AES(RtUtil.randomAES256Key(), AES.Mode.CTR);
+        Random random = new Random();
+        int[] sizes = {0, 1, 17, 4096, 5 * 1024 * 1024 + 7};
+        for (int size : sizes) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            byte[] encrypted = aes.encrypt(data);
+            assert encrypted.length == size + 17;
+            assert Arrays.equals(data, aes.decrypt(encrypted));
+
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            aes.decrypt(new ByteArrayInputStream(encrypted), decrypted);
+            assert Arrays.equals(data, decrypted.toByteArray());
+
+            ByteArrayOutputStream streamEncrypted = new ByteArrayOutputStream();
+            aes.encrypt(new ByteArrayInputStream(data), streamEncrypted);
+            assert Arrays.equals(data, aes.decrypt(streamEncrypted.toByteArray()));
+        }
+        byte[] wrongMode = aes.encrypt(new byte[32]);
+        wrongMode[0] = 0;
+        assert aes.decrypt(wrongMode) == null;
+    }
+
+    @Test
+    public void testGcmAuthenticates() throws Exception {
+        AES aes = new AES(RtUtil.randomAES256Key(), AES.Mode.GCM);
+        String text = RtUtil.random(1000, true);
+        String encrypted = aes.encryptStringToStringURLSafe(text, "tenant-1");
+        assert !encrypted.equals(aes.encryptStringToStringURLSafe(text, "tenant-1"));
+        assert text.equals(aes.decryptStringToString(encrypted, "tenant-1"));
+        assert aes.decryptStringToString(encrypted, "tenant-2") == null;
+        assert text.equals(aes.decryptStringToString(aes.encryptStringToString(text)));
+
+        byte[] bytes = aes.encryptString(text);
+        bytes[bytes.length / 2] ^= 1;
+        assert aes.decrypt(bytes) == null;
+
+        byte[] data = new byte[100000];
+        new Random().nextBytes(data);
+        ByteArrayOutputStream streamEncrypted = new ByteArrayOutputStream();
+        aes.encrypt(new ByteArrayInputStream(data), streamEncrypted);
+        assert Arrays.equals(data, aes.decrypt(streamEncrypted.toByteArray()));
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        aes.decrypt(new ByteArrayInputStream(aes.encrypt(data)), decrypted);
+        assert Arrays.equals(data, decrypted.toByteArray());
+    }
+
+    @Test
+    public void testFileMatchesByteArray() throws Exception {
+        Path dir = Files.createTempDirectory("aes-test");
+        Path plain = dir.resolve("plain");
+        Path encrypted = dir.resolve("encrypted");
+        Path decrypted = dir.resolve("decrypted");
+        Random random = new Random();
+        try {
+            for (AES.Mode mode : new AES.Mode[]{AES.Mode.CBC, AES.Mode.CTR}) {
+                AES aes = new AES(RtUtil.randomAES256Key(), mode);
+                for (int size : new int[]{0, 15, 16, 33, 3 * 1024 * 1024 + 5}) {
+                    byte[] data = new byte[size];
+                    random.nextBytes(data);
+                    Files.write(plain, data);
+                    long written = aes.encryptFile(plain, encrypted);
+                    assert written == Files.size(encrypted);
+                    if(mode == AES.Mode.CBC) {
+                        assert Arrays.equals(aes.encrypt(data), Files.readAllBytes(encrypted));
+                    }
+                    long read = aes.decryptFile(encrypted, decrypted);
+                    assert read == size;
+                    assert Arrays.equals(data, Files.readAllBytes(decrypted));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(plain);
+            Files.deleteIfExists(encrypted);
+            Files.deleteIfExists(decrypted);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testKeyRingRotation() {
+        AESKeyRing keyRing = new AESKeyRing(1, new AES(RtUtil.randomAES256Key()));
+        String text = RtUtil.random(100, true);
+        String oldEncrypted = keyRing.encryptStringToString(text);
+        keyRing.rotate(2, new AES(RtUtil.randomAES256Key(), AES.Mode.GCM));
+        String newEncrypted = keyRing.encryptStringToStringURLSafe(text);
+        assert keyRing.getCurrentKeyId() == 2;
+        assert text.equals(keyRing.decryptStringToString(oldEncrypted));
+        assert text.equals(keyRing.decryptStringToString(newEncrypted));
+        keyRing.remove(1);
+        assert keyRing.decryptStringToString(oldEncrypted) == null;
+        assert text.equals(keyRing.decryptStringToString(newEncrypted));
+    }
+
+    @Test
+    public void testFusedStringPipeline() {
+        String[] texts = {"", "a", "中文测试", "emoji \uD83D\uDE00 end", "broken \uD800 surrogate", RtUtil.random(5000, true), RtUtil.random(100000, true)};
+        for (AES.Mode mode : AES.Mode.values()) {
+            AES aes = new AES(RtUtil.randomAES256Key(), mode);
+            for (String text : texts) {
+                String expected = new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+                String encrypted = aes.encryptStringToString(text);
+                String urlSafe = aes.encryptStringToStringURLSafe(text);
+                if(mode == AES.Mode.CBC) {
+                    assert encrypted.equals(Base64.encodeBase64String(aes.encryptString(text)));
+                    assert urlSafe.equals(Base64.encodeBase64URLSafeString(aes.encryptString(text)));
+                }
+                assert expected.equals(aes.decryptStringToString(encrypted));
+                assert expected.equals(aes.decryptStringToString(urlSafe));
+                assert expected.equals(new String(aes.decryptString(encrypted), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void testMemoCache() {
+        AES aes = new AES(RtUtil.randomAES256Key());
+        AESMemoCache cache = aes.enableMemoCache(4, 64);
+        String encrypted = aes.encryptStringToString("user-10086");
+        assert encrypted.equals(aes.encryptStringToString("user-10086"));
+        assert "user-10086".equals(aes.decryptStringToString(encrypted));
+        assert "user-10086".equals(aes.decryptStringToString(encrypted));
+        assert cache.getHitCount() == 2 && cache.getMissCount() == 2;
+        for (int i = 0; i < 20; i++) {
+            String text = "tenant-" + i;
+            assert text.equals(aes.decryptStringToString(aes.encryptStringToString(text)));
+        }
+        assert cache.size() <= 8;
+        aes.disableMemoCache();
+        assert encrypted.equals(aes.encryptStringToString("user-10086"));
+    }
+
+    @Test
+    public void testBatchKeepsOrder() throws Exception {
+        AES aes = new AES(RtUtil.randomAES256Key());
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            texts.add("field-" + i);
+        }
+        List<String> encrypted = aes.encryptAll(texts);
+        assert encrypted.get(1234).equals(aes.encryptStringToString("field-1234"));
+        assert texts.equals(aes.decryptAll(encrypted));
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            AES gcm = new AES(RtUtil.randomAES256Key(), AES.Mode.GCM);
+            gcm.setBatchExecutor(executor);
+            byte[][] plain = new byte[3000][];
+            for (int i = 0; i < plain.length; i++) {
+                plain[i] = ("row-" + i).getBytes(StandardCharsets.UTF_8);
+            }
+            byte[][] decrypted = gcm.decryptAll(gcm.encryptAll(plain));
+            for (int i = 0; i < plain.length; i++) {
+                assert Arrays.equals(plain[i], decrypted[i]);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStringFormatMatchesBaseline() {
+        // 改造前的实现对同一个key和原文算出的密文, 字符串快速路径必须和它完全一致
+        AES aes = new AES("0123456789abcdefghijklmnopqrstuvwxyzABCDEFG");
+        String[][] vectors = {
+                {"", "gxMlcsszd8oBjJaaF497fw==", "gxMlcsszd8oBjJaaF497fw"},
+                {"hello", "w0aZFAZdughRO7IHCx/WLQ==", "w0aZFAZdughRO7IHCx_WLQ"},
+                {"0123456789abcdef", "x12/5hCt8WSD9FOFHMV9LxO/M7/+uHv4MJp8GWtL7Ug=", "x12_5hCt8WSD9FOFHMV9LxO_M7_-uHv4MJp8GWtL7Ug"},
+                {"中文文本, AES fixed vector: 1234567890!", "Mm/o23oZan0mrMen+msANthw+g1fBuKhZhP1MX/4M4JFV8QxfZysENr6mhZF41T4", "Mm_o23oZan0mrMen-msANthw-g1fBuKhZhP1MX_4M4JFV8QxfZysENr6mhZF41T4"}
+        };
+        for (String[] vector : vectors) {
+            assert vector[1].equals(aes.encryptStringToString(vector[0]));
+            assert vector[2].equals(aes.encryptStringToStringURLSafe(vector[0]));
+            assert vector[0].equals(aes.decryptStringToString(vector[1]));
+            assert vector[0].equals(aes.decryptStringToString(vector[2]));
+        }
+    }
+
+    @Test
+    public void testAadOverloadsWithoutGcm() {
+        AES aes = new AES(RtUtil.randomAES256Key());
+        for (String text : new String[]{"", "hello", "0123456789abcdef", "中文文本"}) {
+            String encrypted = aes.encryptStringToString(text, null);
+            assert encrypted.equals(aes.encryptStringToString(text));
+            assert text.equals(aes.decryptStringToString(encrypted, null));
+            assert text.equals(aes.decryptStringToString(aes.encryptStringToStringURLSafe(text, null), null));
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            assert Arrays.equals(bytes, aes.decrypt(aes.encrypt(bytes, null), null));
+        }
+    }
 }
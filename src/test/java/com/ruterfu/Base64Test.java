@@ -0,0 +1,282 @@
+package com.ruterfu;
+
+import com.ruterfu.thirdpkg.apache.codec.Base58;
+import com.ruterfu.thirdpkg.apache.codec.Base62;
+import com.ruterfu.thirdpkg.apache.codec.Base64;
+import com.ruterfu.thirdpkg.apache.codec.Base64InputStream;
+import com.ruterfu.thirdpkg.apache.codec.Base64OutputStream;
+import com.ruterfu.thirdpkg.apache.codec.BaseNCodec;
+import com.ruterfu.thirdpkg.apache.codec.BaseRadixCodec;
+import com.ruterfu.thirdpkg.apache.codec.CodecPolicy;
+import com.ruterfu.utils.RtUtil;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class Base64Test {
+    @Test
+    public void testStreamsMatchArrays() throws Exception {
+        Random random = new Random(11);
+        byte[] separator = BaseNCodec.getChunkSeparator();
+        for (int length : new int[]{0, 1, 2, 3, 57, 76, 4095, 4096, 100001}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            byte[] expected = new Base64(BaseNCodec.MIME_CHUNK_SIZE, separator).encode(data);
+
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            try (OutputStream out = new Base64OutputStream(encoded, true, BaseNCodec.MIME_CHUNK_SIZE, separator)) {
+                // 不规则的写入长度, 覆盖跨3字节分组和跨行的情况
+                for (int off = 0; off < length; ) {
+                    int n = Math.min(length - off, 1 + random.nextInt(700));
+                    out.write(data, off, n);
+                    off += n;
+                }
+            }
+            assert Arrays.equals(expected, encoded.toByteArray());
+
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            try (InputStream in = new Base64InputStream(new ByteArrayInputStream(expected))) {
+                byte[] buf = new byte[333];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    decoded.write(buf, 0, n);
+                }
+            }
+            assert Arrays.equals(data, decoded.toByteArray());
+
+            ByteArrayOutputStream reEncoded = new ByteArrayOutputStream();
+            try (InputStream in = new Base64InputStream(new ByteArrayInputStream(data), true, BaseNCodec.PEM_CHUNK_SIZE, separator)) {
+                int b;
+                while ((b = in.read()) != -1) {
+                    reEncoded.write(b);
+                }
+            }
+            assert Arrays.equals(new Base64(BaseNCodec.PEM_CHUNK_SIZE, separator).encode(data), reEncoded.toByteArray());
+        }
+    }
+
+    @Test
+    public void testFastPathMatchesJdk() {
+        Random random = new Random(12);
+        for (int length = 0; length < 300; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            byte[] standard = Base64.encodeBase64(data);
+            byte[] urlSafe = Base64.encodeBase64URLSafe(data);
+            assert Arrays.equals(java.util.Base64.getEncoder().encode(data), standard);
+            assert Arrays.equals(java.util.Base64.getUrlEncoder().withoutPadding().encode(data), urlSafe);
+            assert Arrays.equals(data, Base64.decodeBase64(standard));
+            assert Arrays.equals(data, Base64.decodeBase64(urlSafe));
+            // 分行和空白走原来的Context路径
+            assert Arrays.equals(data, Base64.decodeBase64(Base64.encodeBase64Chunked(data)));
+        }
+        assert Arrays.equals("ab".getBytes(StandardCharsets.UTF_8), Base64.decodeBase64(" Y W\nI="));
+        assert Base64.decodeBase64("YW=I").length == 1;
+        assert Base64.decodeBase64("YWJjZ").length == 3;
+
+        Base64 strict = new Base64(0, null, false, CodecPolicy.STRICT);
+        assert Arrays.equals("ab".getBytes(StandardCharsets.UTF_8), strict.decode("YWI="));
+        try {
+            strict.decode("YWJ=");
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // 期望: 严格模式下最后一个字符多余的位不为0
+        }
+    }
+
+    @Test
+    public void testCharSequencePaths() {
+        Random random = new Random(13);
+        for (int length = 0; length < 200; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            String standard = Base64.encodeBase64String(data);
+            String urlSafe = Base64.encodeBase64URLSafeString(data);
+            assert standard.equals(java.util.Base64.getEncoder().encodeToString(data));
+            assert urlSafe.equals(java.util.Base64.getUrlEncoder().withoutPadding().encodeToString(data));
+            assert standard.equals(new Base64(0).encodeToString(data));
+
+            String padded = "[" + urlSafe + "]";
+            assert Arrays.equals(data, Base64.decodeBase64(padded, 1, urlSafe.length()));
+            assert Arrays.equals(data, Base64.decodeBase64(standard.toCharArray(), 0, standard.length()));
+            assert Arrays.equals(data, Base64.decodeBase64(new String(Base64.encodeBase64Chunked(data), StandardCharsets.US_ASCII)));
+        }
+        assert Base64.decodeBase64((String) null) == null;
+        assert Arrays.equals("ab".getBytes(StandardCharsets.UTF_8), Base64.decodeBase64("Y\u4e2dWI="));
+        String text = "中文 & emoji \ud83d\ude00";
+        assert text.equals(RtUtil.base64Decode(RtUtil.base64Encode(text)));
+    }
+
+    @Test
+    public void testBufferAndAppendableSinks() throws Exception {
+        Random random = new Random(14);
+        Base64 standard = new Base64(0);
+        Base64 urlSafe = new Base64(0, null, true);
+        Base64 mime = new Base64(BaseNCodec.MIME_CHUNK_SIZE);
+        for (int length = 0; length < 200; length += 7) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            for (Base64 codec : new Base64[]{standard, urlSafe, mime}) {
+                byte[] expected = codec.encode(data);
+                for (boolean direct : new boolean[]{false, true}) {
+                    ByteBuffer in = direct ? ByteBuffer.allocateDirect(length + 3) : ByteBuffer.allocate(length + 3);
+                    in.position(3);
+                    in.put(data).position(3);
+                    ByteBuffer out = direct ? ByteBuffer.allocateDirect(expected.length + 5) : ByteBuffer.allocate(expected.length + 5);
+                    out.position(5);
+                    int written = codec.encode(in, out);
+                    assert written == expected.length && !in.hasRemaining();
+                    byte[] encoded = new byte[expected.length];
+                    out.position(5);
+                    out.get(encoded);
+                    assert Arrays.equals(expected, encoded);
+
+                    out.position(5);
+                    ByteBuffer decoded = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+                    int read = codec.decode(out, decoded);
+                    assert read == length && !decoded.hasRemaining();
+                    decoded.flip();
+                    byte[] plain = new byte[length];
+                    decoded.get(plain);
+                    assert Arrays.equals(data, plain);
+                }
+                StringBuilder builder = new StringBuilder("x");
+                codec.encodeTo(data, builder);
+                assert builder.toString().equals("x" + new String(expected, StandardCharsets.US_ASCII));
+            }
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+        try {
+            standard.encode(in, ByteBuffer.allocate(7));
+            assert false;
+        } catch (BufferOverflowException e) {
+            assert in.position() == 0;
+        }
+    }
+
+    @Test
+    public void testDecodeInPlace() {
+        Random random = new Random(15);
+        Base64 lenient = new Base64(0);
+        for (int length = 0; length < 300; length += 11) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            byte[] encoded = Base64.encodeBase64Chunked(data);
+            byte[] buf = new byte[encoded.length + 2];
+            System.arraycopy(encoded, 0, buf, 2, encoded.length);
+            int decoded = lenient.decodeInPlace(buf, 2, encoded.length);
+            assert decoded == length && Arrays.equals(data, Arrays.copyOfRange(buf, 2, 2 + decoded));
+        }
+
+        Base64 strict = new Base64(0, null, false, CodecPolicy.STRICT);
+        byte[] valid = "YWI=".getBytes(StandardCharsets.US_ASCII);
+        assert strict.decodeInPlace(valid, 0, valid.length) == 2 && valid[0] == 'a' && valid[1] == 'b';
+        byte[] invalid = "YWJ=".getBytes(StandardCharsets.US_ASCII);
+        assert lenient.decodeInPlace(invalid.clone(), 0, invalid.length) == 2;
+        try {
+            strict.decodeInPlace(invalid, 0, invalid.length);
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // 期望: 严格模式下最后一个字符多余的位不为0
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSerial() {
+        Random random = new Random(16);
+        byte[] data = new byte[5 * 1024 * 1024 + 7];
+        random.nextBytes(data);
+        // 最后一个行长超过一段, 退回顺序编码
+        Base64[] codecs = {new Base64(0), new Base64(0, null, true), new Base64(BaseNCodec.MIME_CHUNK_SIZE), new Base64(BaseNCodec.PEM_CHUNK_SIZE, BaseNCodec.getChunkSeparator(), true), new Base64(8_000_000)};
+        for (Base64 codec : codecs) {
+            byte[] encoded = codec.encodeParallel(data);
+            assert Arrays.equals(codec.encode(data), encoded);
+            assert Arrays.equals(data, codec.decodeParallel(encoded));
+        }
+
+        // 中间出现'='时解码到这里为止
+        byte[] encoded = Base64.encodeBase64(data);
+        encoded[4 * 1024 * 1024 + 2] = '=';
+        assert Arrays.equals(Base64.decodeBase64(encoded), new Base64(0).decodeParallel(encoded));
+
+        // 大段空白时退回顺序解码
+        byte[] spaced = new byte[6 * 1024 * 1024];
+        Arrays.fill(spaced, (byte) ' ');
+        System.arraycopy("YWJj".getBytes(StandardCharsets.US_ASCII), 0, spaced, 10, 4);
+        System.arraycopy("ZA==".getBytes(StandardCharsets.US_ASCII), 0, spaced, spaced.length - 4, 4);
+        assert Arrays.equals("abcd".getBytes(StandardCharsets.US_ASCII), new Base64(0).decodeParallel(spaced));
+    }
+
+    @Test
+    public void testBase62AndBase58() {
+        Base62 base62 = new Base62();
+        Base58 base58 = new Base58();
+        assert "0".equals(base62.encodeLong(0)) && "1".equals(base58.encodeLong(0));
+        assert "LygHa16AHYF".equals(base62.encodeLong(-1L)) && base62.decodeLong("LygHa16AHYF") == -1L;
+        assert "Z".equals(base62.encodeLong(35)) && "10".equals(base62.encodeLong(62));
+        // 比特币Base58的标准测试向量
+        assert "StV1DL6CwTryKyV".equals(base58.encodeToString("hello world".getBytes(StandardCharsets.US_ASCII)));
+        assert "11".equals(base58.encodeToString(new byte[2]));
+
+        Random random = new Random(18);
+        for (int i = 0; i < 2000; i++) {
+            long value = random.nextLong();
+            assert base62.decodeLong(base62.encodeLong(value)) == value;
+            assert base58.decodeLong(base58.encodeLong(value)) == value;
+            byte[] data = new byte[i % 33];
+            random.nextBytes(data);
+            if (i % 5 == 0 && data.length > 1) {
+                data[0] = 0;
+            }
+            String encoded = base62.encodeToString(data);
+            assert Arrays.equals(data, base62.decode(encoded));
+            assert Arrays.equals(data, base58.decode(base58.encodeToString(data)));
+            if (data.length == 16) {
+                assert encoded.length() <= 22;
+            }
+        }
+
+        // 小字母表的子类, 缓冲区按进制计算
+        BaseRadixCodec base2 = new BaseRadixCodec("01") {
+        };
+        BaseRadixCodec base7 = new BaseRadixCodec("0123456") {
+        };
+        assert "101".equals(base2.encodeLong(5));
+        String ones = base2.encodeLong(-1L);
+        assert ones.length() == 64 && base2.decodeLong(ones) == -1L;
+        for (int i = 0; i < 200; i++) {
+            long value = random.nextLong();
+            assert base7.decodeLong(base7.encodeLong(value)) == value;
+            byte[] data = new byte[i % 19];
+            random.nextBytes(data);
+            assert Arrays.equals(data, base2.decode(base2.encodeToString(data)));
+            assert Arrays.equals(data, base7.decode(base7.encodeToString(data)));
+        }
+        for (String alphabet : new String[]{"", "0", "0120", "01\u00e9"}) {
+            try {
+                new BaseRadixCodec(alphabet) {
+                };
+                assert false;
+            } catch (IllegalArgumentException e) {
+                // 期望: 字母表太短, 有重复或者不是ASCII
+            }
+        }
+        try {
+            base62.decodeLong("LygHa16AHYG");
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // 期望: 超出64位
+        }
+        String shortUUID = RtUtil.randomShortUUID();
+        assert shortUUID.length() <= 22 && base62.decode(shortUUID).length == 16;
+    }
+}
@@ -0,0 +1,294 @@
+package com.ruterfu;
+
+import com.ruterfu.thirdpkg.apache.codec.DecoderException;
+import com.ruterfu.thirdpkg.apache.codec.Hex;
+import com.ruterfu.utils.RtUtil;
+import com.ruterfu.utils.digest.DigestIndex;
+import com.ruterfu.utils.digest.Digests;
+import com.ruterfu.utils.digest.DirectoryDigest;
+import com.ruterfu.utils.digest.TreeDigest;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class DigestTest {
+    @Test
+    public void testHexDigests() throws Exception {
+        assert "5d41402abc4b2a76b9719d911017c592".equals(RtUtil.md5("hello"));
+        // 开头是0的SHA1也应该是40位
+        assert "008451a05e1e7aa32c75119df950d405265e0904".equals(RtUtil.sha1("127"));
+
+        Random random = new Random(17);
+        for (int length = 0; length < 64; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            String hex = Hex.encodeHexString(data);
+            assert hex.length() == length * 2;
+            assert Arrays.equals(data, Hex.decodeHex(hex.toUpperCase()));
+            assert Arrays.equals(hex.getBytes(StandardCharsets.US_ASCII), new Hex().encode(data));
+            assert Arrays.equals(data, new Hex().decode(hex.getBytes(StandardCharsets.US_ASCII)));
+        }
+        try {
+            Hex.decodeHex("0g");
+            assert false;
+        } catch (DecoderException e) {
+            // 期望: 非十六进制字符
+        }
+    }
+
+    @Test
+    public void testDigestReuseAndCustomAlgorithm() throws Exception {
+        MessageDigest first = Digests.get("MD5");
+        first.update((byte) 1);
+        // 再次取到的是同一个实例, 已经reset
+        assert Digests.get("md5") == first;
+        assert RtUtil.md5("hello").equals(RtUtil.digest("hello".getBytes(StandardCharsets.UTF_8), "MD5"));
+
+        Digests.register("RT-ALIAS", () -> {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        try {
+            byte[] data = "ruter".getBytes(StandardCharsets.UTF_8);
+            assert RtUtil.digest(data, "rt-alias").equals(RtUtil.digest(data, "SHA-256"));
+        } finally {
+            Digests.unregister("RT-ALIAS");
+        }
+        assert RtUtil.digest(new byte[0], "RT-ALIAS") == null;
+    }
+
+    @Test
+    public void testDigestFile() throws Exception {
+        Random random = new Random(20);
+        Path dir = Files.createTempDirectory("rt-digest");
+        try {
+            // 小文件走direct buffer, 大文件走映射窗口
+            for (int length : new int[]{0, 1, 128 * 1024 + 3, 3 * 1024 * 1024 + 5}) {
+                byte[] data = new byte[length];
+                random.nextBytes(data);
+                Path file = dir.resolve("f" + length);
+                Files.write(file, data);
+                assert RtUtil.digestFile(file, "SHA-256").equals(RtUtil.digest(data, "SHA-256"));
+                assert RtUtil.md5(file.toFile()).equals(RtUtil.digest(data, "MD5"));
+                Map<String, String> all = RtUtil.digestFileAll(file, "MD5", "SHA1", "sha1", "SHA-256");
+                assert all.equals(RtUtil.digestAll(data, "MD5", "SHA1", "sha1", "SHA-256"));
+                assert all.get("MD5").equals(RtUtil.md5(file.toFile())) && all.get("SHA1").equals(all.get("sha1"));
+                assert all.get("SHA-256").equals(RtUtil.digest(data, "SHA-256"));
+                Files.delete(file);
+            }
+            assert RtUtil.digestFile(dir.resolve("missing"), null) == null;
+            assert RtUtil.md5(new File(dir.toFile(), "missing")) == null;
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testDirectoryDigest() throws Exception {
+        Path left = Files.createTempDirectory("rt-tree");
+        Path right = Files.createTempDirectory("rt-tree");
+        try {
+            for (Path root : new Path[]{left, right}) {
+                Files.createDirectories(root.resolve("a/b"));
+                Files.createDirectories(root.resolve("c"));
+                Files.write(root.resolve("a/b/1.txt"), "one".getBytes(StandardCharsets.UTF_8));
+                Files.write(root.resolve("a/2.txt"), "two".getBytes(StandardCharsets.UTF_8));
+                Files.write(root.resolve("c/3.txt"), "three".getBytes(StandardCharsets.UTF_8));
+            }
+            DirectoryDigest l = RtUtil.digestDirectory(left, "SHA-256");
+            assert l.getHashHex().equals(RtUtil.digestDirectory(right, "SHA-256").getHashHex());
+            assert l.getLeafHashes().keySet().toString().equals("[a/2.txt, a/b/1.txt, c/3.txt]");
+            assert l.getLeafHashes().get("c/3.txt").equals(RtUtil.digest("three".getBytes(StandardCharsets.UTF_8), "SHA-256"));
+
+            Files.write(right.resolve("a/b/1.txt"), "changed".getBytes(StandardCharsets.UTF_8));
+            Files.write(right.resolve("c/4.txt"), "four".getBytes(StandardCharsets.UTF_8));
+            Files.delete(right.resolve("a/2.txt"));
+            DirectoryDigest r = RtUtil.digestDirectory(right, "SHA-256");
+            assert !l.getHashHex().equals(r.getHashHex());
+            assert DirectoryDigest.diff(l, r).equals(Arrays.asList("a/2.txt", "a/b/1.txt", "c/4.txt"));
+            assert DirectoryDigest.diff(l, l).isEmpty();
+        } finally {
+            for (Path root : new Path[]{left, right}) {
+                try (Stream<Path> walk = Files.walk(root)) {
+                    walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTreeDigestFormat() throws Exception {
+        Random random = new Random(23);
+        byte[] data = new byte[5 * 1024 * 1024 + 11];
+        random.nextBytes(data);
+        Path file = Files.createTempFile("rt-tree", ".bin");
+        try {
+            Files.write(file, data);
+            int chunkSize = 2 * 1024 * 1024;
+            TreeDigest tree = TreeDigest.of(file, "SHA-256", chunkSize);
+            assert tree.getChunkHashes().size() == 3 && tree.getSize() == data.length;
+
+            // 按文档的格式单线程重新计算
+            MessageDigest root = MessageDigest.getInstance("SHA-256");
+            root.update("rt-tree-v1".getBytes(StandardCharsets.US_ASCII));
+            root.update(ByteBuffer.allocate(16).putLong(chunkSize).putLong(data.length).array());
+            for (int off = 0; off < data.length; off += chunkSize) {
+                byte[] chunk = MessageDigest.getInstance("SHA-256").digest(Arrays.copyOfRange(data, off, Math.min(data.length, off + chunkSize)));
+                assert Arrays.equals(chunk, tree.getChunkHashes().get(off / chunkSize));
+                root.update(chunk);
+            }
+            assert Arrays.equals(root.digest(), tree.getRoot());
+            assert !tree.getRootHex().equals(TreeDigest.of(file, "SHA-256", chunkSize / 2).getRootHex());
+            assert tree.getRootHex().equals(TreeDigest.of(file, "SHA-256", chunkSize).getRootHex());
+            assert RtUtil.digestFileTree(file, "SHA-256").equals(TreeDigest.of(file, "SHA-256").getRootHex());
+
+            // 空文件没有块, 根摘要只包含格式, 块大小和大小0
+            Files.write(file, new byte[0]);
+            TreeDigest empty = TreeDigest.of(file, "SHA-256", chunkSize);
+            assert empty.getChunkHashes().isEmpty() && empty.getSize() == 0;
+            MessageDigest emptyRoot = MessageDigest.getInstance("SHA-256");
+            emptyRoot.update("rt-tree-v1".getBytes(StandardCharsets.US_ASCII));
+            emptyRoot.update(ByteBuffer.allocate(16).putLong(chunkSize).putLong(0).array());
+            assert Arrays.equals(emptyRoot.digest(), empty.getRoot());
+            assert RtUtil.digestFileTree(file, "MD5") != null;
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testDigestIndex() throws Exception {
+        Path dir = Files.createTempDirectory("rt-index");
+        Path index = dir.resolve("digest.idx");
+        try {
+            List<Path> files = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                Path file = dir.resolve("f" + i);
+                Files.write(file, ("content-" + i).getBytes(StandardCharsets.UTF_8));
+                files.add(file);
+            }
+            try (DigestIndex digestIndex = new DigestIndex(index, "MD5")) {
+                Map<Path, String> digests = digestIndex.digestAll(files);
+                assert digests.get(files.get(3)).equals(RtUtil.md5("content-3"));
+            }
+
+            // 内容改了但大小和修改时间不变时返回旧值, 修改时间变了才重新计算
+            Path changed = files.get(5);
+            FileTime modified = Files.getLastModifiedTime(changed);
+            Files.write(changed, "content-X".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(changed, modified);
+            try (DigestIndex digestIndex = new DigestIndex(index, "MD5")) {
+                assert digestIndex.size() == 20;
+                assert digestIndex.digestHex(changed).equals(RtUtil.md5("content-5"));
+                Files.setLastModifiedTime(changed, FileTime.fromMillis(modified.toMillis() + 2000));
+                String rehashed = digestIndex.digestAll(files).get(changed);
+                assert rehashed.equals(RtUtil.md5("content-X"));
+                Files.delete(files.get(0));
+                int pruned = digestIndex.prune();
+                assert pruned == 1;
+            }
+            try (DigestIndex digestIndex = new DigestIndex(index, "MD5")) {
+                assert digestIndex.size() == 19;
+            }
+            try (DigestIndex digestIndex = new DigestIndex(index, "SHA-256")) {
+                assert digestIndex.size() == 0;
+            }
+
+            // 头部正常但后面是乱码(不合法的UTF)时, 从空索引开始
+            ByteArrayOutputStream garbage = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(garbage)) {
+                out.writeInt(0x52544449);
+                out.writeByte(1);
+                out.writeUTF("MD5");
+                out.writeInt(1);
+                out.write(new byte[]{0, 2, (byte) 0xFF, (byte) 0xFF, 1, 2, 3});
+            }
+            Files.write(index, garbage.toByteArray());
+            try (DigestIndex digestIndex = new DigestIndex(index, "MD5")) {
+                assert digestIndex.size() == 0;
+                String digest = digestIndex.digestHex(files.get(1));
+                assert digest.equals(RtUtil.md5("content-1"));
+            }
+            try (DigestIndex digestIndex = new DigestIndex(index, "MD5")) {
+                assert digestIndex.size() == 1;
+            }
+        } finally {
+            try (Stream<Path> walk = Files.walk(dir)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingParts() {
+        Random random = new Random(25);
+        for (int round = 0; round < 300; round++) {
+            Object[] parts = new Object[1 + random.nextInt(6)];
+            StringBuilder joined = new StringBuilder();
+            for (int i = 0; i < parts.length; i++) {
+                switch (random.nextInt(6)) {
+                    case 0:
+                        parts[i] = null;
+                        break;
+                    case 1:
+                        parts[i] = random.nextLong();
+                        break;
+                    case 2:
+                        parts[i] = random.nextInt();
+                        break;
+                    case 3:
+                        parts[i] = new StringBuilder(RtUtil.random(random.nextInt(3000)));
+                        break;
+                    default:
+                        // 随机字符, 包括被拆到两部分的代理对和落单的代理
+                        char[] chars = new char[random.nextInt(700)];
+                        for (int j = 0; j < chars.length; j++) {
+                            chars[j] = random.nextInt(4) == 0 ? (char) (0xD800 + random.nextInt(0x800)) : (char) random.nextInt(0x3000);
+                        }
+                        parts[i] = new String(chars);
+                }
+                joined.append(parts[i] == null ? "" : parts[i].toString());
+            }
+            assert RtUtil.md5(parts).equals(RtUtil.md5(joined.toString()));
+            assert RtUtil.sha1(parts).equals(RtUtil.sha1(joined.toString()));
+        }
+        assert RtUtil.md5("a\ud83d", "\ude00b").equals(RtUtil.md5("a\ud83d\ude00b"));
+        assert RtUtil.md5(Long.MIN_VALUE, 0, -7).equals(RtUtil.md5(Long.MIN_VALUE + "0-7"));
+
+        // toString里嵌套调用也不能互相影响
+        Object nested = new Object() {
+            @Override
+            public String toString() {
+                return RtUtil.md5("inner", 1) + RtUtil.md5("x");
+            }
+        };
+        assert RtUtil.md5("outer", nested, 2).equals(RtUtil.md5("outer" + RtUtil.md5("inner1") + RtUtil.md5("x") + "2"));
+
+        // toString返回null时和拼字符串一样按"null"计算
+        Object nullString = new Object() {
+            @Override
+            public String toString() {
+                return null;
+            }
+        };
+        assert RtUtil.md5("a", nullString).equals(RtUtil.md5("anull"));
+    }
+}